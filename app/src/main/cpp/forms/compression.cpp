@@ -31,11 +31,19 @@ static jlong open_stats(JNIEnv *env, jobject object, jobject asset_manager, jstr
 
 static void close_stats(JNIEnv *env, jobject object, jlong stats_ptr){
     stats_handle *h = (stats_handle *) stats_ptr;
+    if (h->shared){
+        stats_handle_free(h);
+        return;
+    }
     AAsset *a = (AAsset *) h->reserved;
     stats_handle_free(h);
     AAsset_close(a);
 }
 
+static jlong clone_stats(JNIEnv *env, jobject object, jlong stats_ptr){
+    return (jlong)stats_clone_handle((stats_handle *) stats_ptr);
+}
+
 static void build_recipe(JNIEnv *env, jobject object, jstring form_spec){
     const char *specification = env->GetStringUTFChars(form_spec, NULL);
     char *recipe_text[1024];
@@ -134,14 +142,13 @@ static jbyteArray compress_string(JNIEnv *env, jobject object, jlong stats_ptr,
     const char *string = env->GetStringUTFChars(str, NULL);
 
     unsigned in_len = strlen(string);
-    uint8_t buff[in_len];
+    uint8_t buff[in_len * 2 + 16];
     int len = sizeof buff;
 
     int r = stats3_compress(string, in_len, buff, &len, h);
-    if (r != 0) {
-        env->ReleaseStringUTFChars(str, string);
+    env->ReleaseStringUTFChars(str, string);
+    if (r != 0)
         return NULL;
-    }
 
     jbyteArray compressed = env->NewByteArray(len);
     env->SetByteArrayRegion(compressed, 0, len, (const jbyte *) buff);
@@ -149,12 +156,32 @@ static jbyteArray compress_string(JNIEnv *env, jobject object, jlong stats_ptr,
     return compressed;
 }
 
+static jstring decompress_string(JNIEnv *env, jobject object, jlong stats_ptr, jbyteArray compressed) {
+    stats_handle *h = (stats_handle *) stats_ptr;
+
+    jsize in_len = env->GetArrayLength(compressed);
+    uint8_t in[in_len];
+    env->GetByteArrayRegion(compressed, 0, in_len, (jbyte *) in);
+
+    // messages are at most 1024 characters, each up to 3 bytes of utf-8
+    char out[1024 * 3 + 1];
+    int len = 0;
+
+    if (stats3_decompress(in, in_len, out, &len, h) != 0)
+        return NULL;
+    out[len] = 0;
+
+    return env->NewStringUTF(out);
+}
+
 #define NELS(X) (sizeof(X) / sizeof(X[0]))
 
 static JNINativeMethod stats_methods[] = {
         {"openStats", "(Landroid/content/res/AssetManager;Ljava/lang/String;)J", (void*)open_stats },
         {"closeStats", "(J)V", (void*)close_stats },
-        {"compressString", "(JLjava/lang/String;)[B", (void*)compress_string }
+        {"cloneStats", "(J)J", (void*)clone_stats },
+        {"compressString", "(JLjava/lang/String;)[B", (void*)compress_string },
+        {"decompressString", "(J[B)Ljava/lang/String;", (void*)decompress_string }
 };
 
 static JNINativeMethod recipe_methods[] = {
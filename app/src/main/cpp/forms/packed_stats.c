@@ -17,11 +17,15 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
 */
 
 #include <stdio.h>
+#include <string.h>
 #include <strings.h>
 #include <stdlib.h>
 #include <ctype.h>
 #include <math.h>
 #include <sys/mman.h>
+#include <sys/stat.h>
+#include <fcntl.h>
+#include <unistd.h>
 
 #include "arithmetic.h"
 #include "charset.h"
@@ -47,10 +51,12 @@ void node_free(struct node *n)
 
 void stats_handle_free(stats_handle *h)
 {
-  if (h->mmap) munmap(h->mmap,h->fileLength);
-  if (h->buffer && h->bufferBitmap) free((void*)h->buffer);
-  if (h->bufferBitmap) free(h->bufferBitmap);
-  if (h->tree) node_free_recursive(h->tree);
+  if (!h->shared){
+    if (h->mmap) munmap(h->mmap,h->fileLength);
+    if (h->buffer && h->bufferBitmap) free((void*)h->buffer);
+    if (h->bufferBitmap) free(h->bufferBitmap);
+    if (h->tree) node_free_recursive(h->tree);
+  }
 
   int i;
   for(i=0;i<512;i++) if (h->unicode_pages[i]) free(h->unicode_pages[i]);
@@ -159,6 +165,30 @@ stats_handle *stats_new_handle(char *file)
   return h;
 }
 
+/* A handle for another thread to compress with.
+   The mapped buffer and extracted tree are only read once loaded, so they are shared.
+   Scratch vectors, lazily loaded unicode pages and totals are per handle. */
+stats_handle *stats_clone_handle(stats_handle *h)
+{
+  stats_handle *c=calloc(sizeof(stats_handle),1);
+  if (!c) return NULL;
+  memcpy(c,h,sizeof(stats_handle));
+  c->shared=1;
+  c->file=NULL;
+  bzero(c->unicode_pages,sizeof(c->unicode_pages));
+  c->unicode_page_addresses=NULL;
+  bzero(&c->vector,sizeof(c->vector));
+  c->total_alpha_bits=0;
+  c->total_nonalpha_bits=0;
+  c->total_case_bits=0;
+  c->total_model_bits=0;
+  c->total_length_bits=0;
+  c->total_finalisation_bits=0;
+  c->total_unicode_millibits=0;
+  c->total_unicode_chars=0;
+  return c;
+}
+
 stats_handle *stats_mapped_file(const unsigned char *buffer, size_t len){
   stats_handle *h=calloc(sizeof(stats_handle),1);
   bzero(h, sizeof(stats_handle));
@@ -171,6 +201,30 @@ stats_handle *stats_mapped_file(const unsigned char *buffer, size_t len){
   return h;
 }
 
+/* Without an asset manager (eg desktop builds), map the whole model read only */
+stats_handle *stats_map_file(const char *file)
+{
+  struct stat st;
+  int fd=open(file,O_RDONLY);
+  if (fd==-1) return NULL;
+  if (fstat(fd,&st)==-1) {
+    close(fd);
+    return NULL;
+  }
+  unsigned char *map=mmap(NULL,st.st_size,PROT_READ,MAP_SHARED,fd,0);
+  close(fd);
+  if (map==MAP_FAILED) return NULL;
+
+  stats_handle *h=stats_mapped_file(map,st.st_size);
+  if (!h) {
+    munmap(map,st.st_size);
+    return NULL;
+  }
+  /* so stats_handle_free will unmap it */
+  h->mmap=map;
+  return h;
+}
+
 int stats_load_tree(stats_handle *h)
 {  
   extractNodeAt(NULL,0,h->rootNodeAddress,h->totalCount,h,
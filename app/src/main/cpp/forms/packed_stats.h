@@ -51,6 +51,8 @@ typedef struct compressed_stats_handle {
   FILE *file;
   unsigned char *mmap;
   void *reserved;
+  /* set by stats_clone_handle, the buffer and tree belong to another handle */
+  int shared;
   int fileLength;
   int dummyOffset;
   const unsigned char *buffer;
@@ -106,8 +108,10 @@ int vectorReport(char *name,struct probability_vector *v,int s);
 int dumpNode(struct node *n);
 
 void stats_handle_free(stats_handle *h);
+stats_handle *stats_clone_handle(stats_handle *h);
 stats_handle *stats_new_handle(char *file);
 stats_handle *stats_mapped_file(const unsigned char *buffer, size_t len);
+stats_handle *stats_map_file(const char *file);
 int stats_load_tree(stats_handle *h);
 const unsigned char *getCompressedBytes(stats_handle *h,int start,int count);
 int *getUnicodeStatistics(stats_handle *h,int codePage);
@@ -313,16 +313,23 @@ int stats3_compress_bits(range_coder *c,const char *m_in,int m_in_len,
   return 0;
 }
 
+/* *outlen is the size of out on entry, the compressed length on return */
 int stats3_compress(const char *in,int inlen,unsigned char *out, int *outlen,stats_handle *h)
 {
-  range_coder *c=range_new_coder(inlen*2);
+  /* leave room for the length and model flags of very short messages */
+  range_coder *c=range_new_coder(inlen*2+16);
   if (stats3_compress_bits(c,in,inlen,h,NULL)) {
     range_coder_free(c);
     return -1;
   }
   range_conclude(c);
-  *outlen=c->bits_used>>3;
-  if (c->bits_used&7) (*outlen)++;
+  int bytes=c->bits_used>>3;
+  if (c->bits_used&7) bytes++;
+  if (bytes>*outlen) {
+    range_coder_free(c);
+    return -1;
+  }
+  *outlen=bytes;
   bcopy(c->bit_stream,out,*outlen);
   range_coder_free(c);
   return 0;
@@ -397,64 +397,102 @@ static void file_append(struct file_data *file, uint8_t *data, size_t len){
     file->new_length+=len;
 }
 
-static int file_flush(struct dbstate *state, struct file_data *file, const uint8_t *expected_hash, size_t hash_len) {
-    MDB_txn *txn;
-    MDB_val key;
-    MDB_val val;
-    struct file_version new_version;
-    struct file_data new_data;
-    struct root_state new_root;
+static void file_rewind(struct file_data *file){
+    file->new_length = file->length;
+    file->new_hash = file->partial_hash;
+}
 
+// hash everything appended since the last flush, and compare it with the hash we expect
+static int file_prepare(struct file_data *file, struct file_data *new_data, const uint8_t *expected_hash, size_t hash_len) {
     if (file->length == file->new_length)
         return 0;
 
-    new_data = *file;
-    crypto_hash_sha256_final(&new_data.new_hash, new_data.hash);
+    *new_data = *file;
+    crypto_hash_sha256_final(&new_data->new_hash, new_data->hash);
 
-    if (hash_len && memcmp(expected_hash, new_data.hash, hash_len) != 0) {
+    if (hash_len && memcmp(expected_hash, new_data->hash, hash_len) != 0) {
         LOGI("Hash comparison failed");
-        goto rewind;
+        return -1;
     }
 
-    new_data.version++;
-    new_data.partial_hash = new_data.new_hash = file->new_hash;
-    new_data.length = new_data.new_length;
+    new_data->version++;
+    new_data->partial_hash = new_data->new_hash = file->new_hash;
+    new_data->length = new_data->new_length;
+    return 1;
+}
 
-    if (mdb_txn_begin(state->env, NULL, 0, &txn) != 0) {
-        LOGI("mdb_txn_begin failed");
-        goto rewind;
-    }
+static int file_put(MDB_txn *txn, struct dbstate *state, struct file_data *file, struct file_data *new_data, struct root_state *root) {
+    MDB_val key;
+    MDB_val val;
+    struct file_version new_version;
 
     key.mv_data = (void *) file->name;
     key.mv_size = strlen(file->name);
-    val.mv_data = &new_data;
+    val.mv_data = new_data;
     val.mv_size = PERSIST_LEN;
 
     if (mdb_put(txn, state->files, &key, &val, 0) != 0) {
         LOGI("mdb_put failed");
-        goto error;
+        return -1;
     }
 
     // TODO purge really old index records?
     memset(&new_version, 0, sizeof new_version);
     strcpy(new_version.name, file->name);
-    new_version.version = new_data.version;
-    new_version.length = new_data.length;
+    new_version.version = new_data->version;
+    new_version.length = new_data->length;
 
-    key.mv_data = (void *) new_data.hash;
+    key.mv_data = (void *) new_data->hash;
     key.mv_size = sizeof(sync_key_t);
     val.mv_data = &new_version;
     val.mv_size = offsetof(struct file_version, name)+strlen(new_version.name)+1;
 
     if (mdb_put(txn, state->index, &key, &val, 0) != 0) {
         LOGI("mdb_put failed");
-        goto error;
+        return -1;
     }
 
     // XOR the old and new hash with the root hash
-    for (unsigned i = 0; i < sizeof new_root; i++)
-        new_root.hash[i] = state->root.hash[i] ^ new_data.hash[i] ^ file->hash[i];
+    for (unsigned i = 0; i < sizeof root->hash; i++)
+        root->hash[i] ^= new_data->hash[i] ^ file->hash[i];
+    return 0;
+}
+
+// Now we can and must update the state of the file
+static void file_apply(struct dbstate *state, struct file_data *file, struct file_data *new_data) {
+    if (state->sync_state) {
+        sync_add_key(state->sync_state, (sync_key_t *) new_data->hash, NULL);
+        state->keys++;
+        if (file->length > 0) {
+            state->deleted++;
+            // TODO remove old sync keys [periodically]?
+        }
+    }
+
+    *file = *new_data;
+
+    LOGI("flushed file %s, len %d", file->name, (int)file->length);
+}
+
+// commit several prepared files in one transaction, with a single new root hash
+static int files_commit(struct dbstate *state, struct file_data **files, struct file_data *new_data, int count) {
+    MDB_txn *txn;
+    MDB_val key;
+    MDB_val val;
+    struct root_state new_root;
+    int i;
+
+    if (mdb_txn_begin(state->env, NULL, 0, &txn) != 0) {
+        LOGI("mdb_txn_begin failed");
+        goto rewind;
+    }
+
+    new_root = state->root;
     new_root.version = VERSION;
+    for (i = 0; i < count; i++) {
+        if (file_put(txn, state, files[i], &new_data[i], &new_root))
+            goto error;
+    }
 
     key.mv_data = (void *) "_";
     key.mv_size = 1;
@@ -468,35 +506,41 @@ static int file_flush(struct dbstate *state, struct file_data *file, const uint8
 
     if (mdb_txn_commit(txn) != 0) {
         LOGI("mdb_txn_commit failed");
-        goto error;
+        goto rewind;
     }
 
-    // Now we can and must update the state of the file
     memcpy(&state->root, &new_root, sizeof new_root);
-
-    if (state->sync_state) {
-        sync_add_key(state->sync_state, (sync_key_t *) new_data.hash, NULL);
-        state->keys++;
-        if (file->length > 0) {
-            state->deleted++;
-            // TODO remove old sync keys [periodically]?
-        }
-    }
-
-    *file = new_data;
-
-    LOGI("flushed file %s, len %d", file->name, (int)file->length);
+    for (i = 0; i < count; i++)
+        file_apply(state, files[i], &new_data[i]);
     return 1;
 
 error:
     mdb_txn_abort(txn);
 
 rewind:
-    file->new_length = file->length;
-    file->new_hash = file->partial_hash;
+    for (i = 0; i < count; i++)
+        file_rewind(files[i]);
     return -1;
 }
 
+static int file_flush(struct dbstate *state, struct file_data *file, const uint8_t *expected_hash, size_t hash_len) {
+    struct file_data new_data;
+
+    int ret = file_prepare(file, &new_data, expected_hash, hash_len);
+    if (ret < 0)
+        file_rewind(file);
+    if (ret <= 0)
+        return ret;
+    return files_commit(state, &file, &new_data, 1);
+}
+
+static void file_callback(JNIEnv *env, jobject object, struct file_data *file){
+    jbyteArray new_hash = env->NewByteArray(sizeof file->hash);
+    env->SetByteArrayRegion(new_hash, 0, sizeof file->hash, (const jbyte *) file->hash);
+    env->CallVoidMethod(object, jni_file_callback, (jlong)file->length, new_hash);
+    env->DeleteLocalRef(new_hash);
+}
+
 static void storage_callback(JNIEnv *env, struct dbstate *state){
     jbyteArray root = env->NewByteArray(sizeof state->root.hash);
     env->SetByteArrayRegion(root, 0, sizeof state->root.hash, (const jbyte *) state->root.hash);
@@ -532,6 +576,41 @@ end:
     return (jlong)state;
 }
 
+// flush files that were verified while the storage was batching writes, in one transaction
+static jint JNICALL jni_storage_flush(JNIEnv *env, jobject object, jlong ptr, jlongArray file_ptrs, jobjectArray files)
+{
+    struct dbstate *state = (struct dbstate *)ptr;
+    jsize count = env->GetArrayLength(file_ptrs);
+    jlong ptrs[count];
+    env->GetLongArrayRegion(file_ptrs, 0, count, ptrs);
+
+    struct file_data *new_data = (struct file_data *)malloc(count * sizeof(struct file_data));
+    if (!new_data)
+        return -1;
+    struct file_data *flushed[count];
+    jsize indexes[count];
+    int n = 0;
+    for (jsize i = 0; i < count; i++) {
+        struct file_data *file = (file_data *) ptrs[i];
+        if (file_prepare(file, &new_data[n], NULL, 0) > 0) {
+            flushed[n] = file;
+            indexes[n] = i;
+            n++;
+        }
+    }
+    int ret = n ? files_commit(state, flushed, new_data, n) : 0;
+    free(new_data);
+
+    for (int i = 0; i < n; i++) {
+        jobject file = env->GetObjectArrayElement(files, indexes[i]);
+        file_callback(env, file, flushed[i]);
+        env->DeleteLocalRef(file);
+    }
+    if (ret==1)
+        storage_callback(env, state);
+    return (jint)ret;
+}
+
 static void JNICALL jni_storage_close(JNIEnv *env, jobject object, jlong ptr)
 {
     struct dbstate *state = (struct dbstate *)ptr;
@@ -546,9 +625,7 @@ static jlong JNICALL jni_file_open(JNIEnv *env, jobject object, jlong store_ptr,
     const char *filename = env->GetStringUTFChars(name, NULL);
     struct file_data *ret = file_open(state, filename);
     env->ReleaseStringUTFChars(name, filename);
-    jbyteArray new_hash = env->NewByteArray(sizeof ret->hash);
-    env->SetByteArrayRegion(new_hash, 0, sizeof ret->hash, (const jbyte *) ret->hash);
-    env->CallVoidMethod(object, jni_file_callback, (jlong)ret->length, new_hash);
+    file_callback(env, object, ret);
     return (jlong)ret;
 }
 
@@ -566,6 +643,12 @@ static void JNICALL jni_file_append(JNIEnv *env, jobject object, jlong file_ptr,
     file_append(file, (uint8_t *) buff, (size_t)len);
 }
 
+static void JNICALL jni_file_rewind(JNIEnv *env, jobject object, jlong file_ptr)
+{
+    struct file_data *file = (file_data *) file_ptr;
+    file_rewind(file);
+}
+
 static jint JNICALL jni_file_flush(JNIEnv *env, jobject object, jlong store_ptr, jlong file_ptr, jbyteArray expectedHash)
 {
     struct dbstate *state = (struct dbstate *)store_ptr;
@@ -576,16 +659,31 @@ static jint JNICALL jni_file_flush(JNIEnv *env, jobject object, jlong store_ptr,
     if (hash_length)
         env->GetByteArrayRegion(expectedHash, 0, hash_length, (jbyte *) hash);
     int ret = file_flush(state, file, hash, (size_t)hash_length);
-    if (ret!=0){
-        jbyteArray new_hash = env->NewByteArray(sizeof file->hash);
-        env->SetByteArrayRegion(new_hash, 0, sizeof file->hash, (const jbyte *) file->hash);
-        env->CallVoidMethod(object, jni_file_callback, (jlong)file->length, new_hash);
-    }
+    if (ret!=0)
+        file_callback(env, object, file);
     if (ret==1)
         storage_callback(env, state);
     return (jint)ret;
 }
 
+// check the hash of appended data, leaving the flush to the storage's next batch commit
+static jint JNICALL jni_file_verify(JNIEnv *env, jobject object, jlong file_ptr, jbyteArray expectedHash)
+{
+    struct file_data *file = (file_data *) file_ptr;
+    struct file_data new_data;
+
+    int hash_length = expectedHash ? env->GetArrayLength(expectedHash) : 0;
+    uint8_t hash[hash_length];
+    if (hash_length)
+        env->GetByteArrayRegion(expectedHash, 0, hash_length, (jbyte *) hash);
+    int ret = file_prepare(file, &new_data, hash, (size_t)hash_length);
+    if (ret<0){
+        file_rewind(file);
+        file_callback(env, object, file);
+    }
+    return (jint)ret;
+}
+
 static jlong JNICALL jni_peer_message(JNIEnv *env, jobject object, jlong store_ptr, jlong sync_state, jbyteArray message){
     struct dbstate *state = (struct dbstate *)store_ptr;
     struct sync_peer_state *peer_state = (sync_peer_state *) sync_state;
@@ -639,12 +737,15 @@ static void jni_queue_root_message(JNIEnv *env, jobject peer, jlong store_ptr){
 static JNINativeMethod storage_methods[] = {
         {"open", "(Ljava/lang/String;)J", (void*)jni_storage_open },
         {"close", "(J)V", (void*)jni_storage_close },
+        {"flush", "(J[J[Lorg/servalproject/succinct/storage/RecordStore;)I", (void*)jni_storage_flush },
 };
 
 static JNINativeMethod file_methods[] = {
         {"open", "(JLjava/lang/String;)J", (void*)jni_file_open },
         {"append", "(J[BII)V", (void*)jni_file_append },
         {"flush", "(JJ[B)I", (void*)jni_file_flush },
+        {"verify", "(J[B)I", (void*)jni_file_verify },
+        {"rewind", "(J)V", (void*)jni_file_rewind },
         {"close", "(J)V", (void*)jni_file_close },
 };
 
@@ -6,6 +6,7 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.preference.PreferenceManager;
 
+import org.servalproject.succinct.forms.RecipeCache;
 import org.servalproject.succinct.messaging.rock.RockMessaging;
 import org.servalproject.succinct.networking.Networks;
 import org.servalproject.succinct.networking.PeerId;
@@ -57,6 +58,18 @@ public class App extends Application {
 	// minimum delay before sending a location update
 	public static final String LOCATION_INTERVAL = "location_interval";
 	public static final long DefaultLocationInterval = 15*60*1000;
+	// send waiting records of the same form as one message, off by default until the EOC can decode FORM_BATCH
+	public static final String FORM_BATCH = "form_batch";
+	// filtering of our own location fixes, see LocationFilter
+	public static final String LOCATION_MIN_INTERVAL = "location_min_interval";
+	public static final long DefaultLocationMinInterval = 5*1000;
+	public static final String LOCATION_STATIONARY_INTERVAL = "location_stationary_interval";
+	public static final long DefaultLocationStationaryInterval = 15*60*1000;
+	public static final String LOCATION_MIN_DISTANCE = "location_min_distance";
+	public static final float DefaultLocationMinDistance = 20;
+	// days to keep chat messages of teams we are no longer part of, 0 to keep forever
+	public static final String CHAT_RETENTION_DAYS = "chat_retention_days";
+	public static final String DefaultChatRetentionDays = "30";
 
 	private PeerId fromPreference(SharedPreferences prefs, String pref){
 		String id = prefs.getString(pref, null);
@@ -101,6 +114,8 @@ public class App extends Application {
 	public void onTrimMemory(int level) {
 		if (rock!=null && level!=TRIM_MEMORY_UI_HIDDEN)
 			rock.onTrimMemory(level);
+		if (level!=TRIM_MEMORY_UI_HIDDEN)
+			RecipeCache.getInstance().evictAll();
 		super.onTrimMemory(level);
 	}
 }
@@ -21,14 +21,15 @@ import android.widget.EditText;
 import org.servalproject.succinct.chat.ChatAdapter;
 import org.servalproject.succinct.chat.ChatCursorLoader;
 import org.servalproject.succinct.chat.ChatDatabase;
-import org.servalproject.succinct.chat.ChatDatabase.ChatMessageCursor;
+import org.servalproject.succinct.chat.ChatDatabase.ChatMessage;
 import org.servalproject.succinct.chat.StoredChatMessage;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
 
 
-public class ChatFragment extends Fragment implements LoaderManager.LoaderCallbacks<ChatMessageCursor> {
+public class ChatFragment extends Fragment implements LoaderManager.LoaderCallbacks<List<ChatMessage>> {
     private static final String TAG = "ChatFragment";
     private ChatAdapter adapter;
     private EditText input;
@@ -54,12 +55,15 @@ public class ChatFragment extends Fragment implements LoaderManager.LoaderCallba
         // Inflate the layout for this fragment
         View view = inflater.inflate(R.layout.fragment_chat, container, false);
         RecyclerView recycler = (RecyclerView) view.findViewById(R.id.chatRecycler);
-        App app = (App) getActivity().getApplication();
-        try {
-            adapter = new ChatAdapter(app.teamStorage.getMembers());
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+        adapter = new ChatAdapter();
+        adapter.setLoadOlderListener(new Runnable() {
+            @Override
+            public void run() {
+                Loader<List<ChatMessage>> loader = getLoaderManager().getLoader(0);
+                if (loader != null)
+                    ((ChatCursorLoader) loader).loadOlder();
+            }
+        });
         recycler.setAdapter(adapter);
         adapter.enableStickyScroll(recycler);
         input = (EditText) view.findViewById(R.id.sendEditText);
@@ -118,20 +122,20 @@ public class ChatFragment extends Fragment implements LoaderManager.LoaderCallba
     }
 
     @Override
-    public Loader<ChatMessageCursor> onCreateLoader(int i, Bundle args) {
+    public Loader<List<ChatMessage>> onCreateLoader(int i, Bundle args) {
         Log.d(TAG, "onCreateLoader");
         return new ChatCursorLoader((App) (getActivity().getApplication()));
     }
 
     @Override
-    public void onLoadFinished(Loader<ChatMessageCursor> loader, ChatMessageCursor cursor) {
+    public void onLoadFinished(Loader<List<ChatMessage>> loader, List<ChatMessage> messages) {
         Log.d(TAG, "onLoadFinished");
-        adapter.setCursor(cursor);
+        adapter.setMessages(messages);
     }
 
     @Override
-    public void onLoaderReset(Loader<ChatMessageCursor> loader) {
+    public void onLoaderReset(Loader<List<ChatMessage>> loader) {
         Log.d(TAG, "onLoaderReset");
-        adapter.setCursor(null);
+        adapter.setMessages(null);
     }
 }
@@ -13,6 +13,7 @@ import android.content.pm.PackageManager;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
@@ -39,6 +40,7 @@ import org.servalproject.succinct.location.LocationService;
 import org.servalproject.succinct.location.LocationService.LocationBroadcastReceiver;
 import org.servalproject.succinct.team.TeamMember;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -174,10 +176,23 @@ public class MainActivity extends AppCompatActivity
             navigate(R.id.nav_settings, getString(R.string.nav_settings));
             return true;
         }
+        if (id == R.id.action_export_metrics) {
+            exportMetrics();
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
 
+    private void exportMetrics(){
+        if (app.networks == null)
+            return;
+        final File file = new File(new File(Environment.getExternalStorageDirectory(), "succinct"),
+                "metrics-" + System.currentTimeMillis() + ".txt");
+        app.networks.exportMetrics(file);
+        Toast.makeText(this, file.getPath(), Toast.LENGTH_LONG).show();
+    }
+
     private boolean navigate(int id, CharSequence newTitle){
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
 
@@ -22,10 +22,14 @@ import org.mapsforge.map.reader.MapFile;
 import org.mapsforge.map.rendertheme.InternalRenderTheme;
 import org.servalproject.succinct.location.LocationService;
 import org.servalproject.succinct.location.MapLocationLayer;
+import org.servalproject.succinct.location.MapTrackLayer;
 
 import java.io.File;
 
 public class MapFragment extends Fragment {
+    private MapView map;
+    private MapTrackLayer mapTrackLayer;
+    private MapLocationLayer mapLocationLayer;
 
     public MapFragment() {
         // Required empty public constructor
@@ -46,6 +50,7 @@ public class MapFragment extends Fragment {
         // Inflate the layout for this fragment
         View view = inflater.inflate(R.layout.fragment_map, container, false);
         final MapView map = (MapView) view.findViewById(R.id.map_view);
+        this.map = map;
         map.setClickable(true);
         map.getMapScaleBar().setVisible(true);
         map.setBuiltInZoomControls(true);
@@ -87,8 +92,12 @@ public class MapFragment extends Fragment {
 
         Drawable drawable = VectorDrawableCompat.create(getResources(), R.drawable.marker_mylocation, null);
 
+        mapTrackLayer = new MapTrackLayer();
+        mapTrackLayer.addToMap(map);
+        mapTrackLayer.activate(mainActivity);
+
         Bitmap bitmap = AndroidGraphicFactory.convertToBitmap(drawable);
-        MapLocationLayer mapLocationLayer = new MapLocationLayer(bitmap);
+        mapLocationLayer = new MapLocationLayer(bitmap);
         mapLocationLayer.addToMap(map);
         mapLocationLayer.center(map, true);
         LocationService locationService = mainActivity.getLocationService();
@@ -100,6 +109,17 @@ public class MapFragment extends Fragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        // myLocationOverlay.disableMyLocation();
+        // stop watching storage and location, a new view will create its own layers
+        if (mapTrackLayer != null) {
+            mapTrackLayer.deactivate();
+            map.getLayerManager().getLayers().remove(mapTrackLayer);
+            mapTrackLayer = null;
+        }
+        if (mapLocationLayer != null) {
+            mapLocationLayer.deactivate();
+            map.getLayerManager().getLayers().remove(mapLocationLayer);
+            mapLocationLayer = null;
+        }
+        map = null;
     }
 }
@@ -1,6 +1,5 @@
 package org.servalproject.succinct.chat;
 
-import android.database.Cursor;
 import android.support.annotation.IntDef;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
@@ -11,12 +10,12 @@ import android.widget.TextView;
 
 import org.servalproject.succinct.R;
 import org.servalproject.succinct.chat.ChatDatabase.ChatMessage;
-import org.servalproject.succinct.chat.ChatDatabase.ChatMessageCursor;
-import org.servalproject.succinct.team.MembershipList;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.text.DateFormat;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by kieran on 1/08/17.
@@ -27,8 +26,10 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
     private DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
     private DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.LONG);
     private boolean atBottom = false;
-    private ChatMessageCursor cursor;
-    private final MembershipList membershipList;
+    private List<ChatMessage> messages = Collections.emptyList();
+    private Runnable loadOlder;
+    // ask for older messages when we get this close to the top
+    private static final int PREFETCH = 20;
 
     @IntDef({TYPE_MESSAGE_RECEIVED, TYPE_MESSAGE_SENT})
     @Retention(RetentionPolicy.SOURCE)
@@ -36,25 +37,53 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
     private static final int TYPE_MESSAGE_RECEIVED = 0;
     private static final int TYPE_MESSAGE_SENT = 1;
 
-    public ChatAdapter(MembershipList members) {
+    public ChatAdapter() {
         setHasStableIds(true);
-        membershipList = members;
     }
 
-    public void setCursor(ChatMessageCursor c) {
-        if (c == cursor) {
+    public void setLoadOlderListener(Runnable loadOlder) {
+        this.loadOlder = loadOlder;
+    }
+
+    public void setMessages(List<ChatMessage> newMessages) {
+        if (newMessages == null)
+            newMessages = Collections.emptyList();
+        if (newMessages == messages) {
             return;
         }
-        Cursor old = cursor;
-        cursor = c;
-        if (old != null) {
-            old.close();
+        List<ChatMessage> old = messages;
+        messages = newMessages;
+
+        // usually the old window is still intact, with older messages before and new messages after
+        if (!old.isEmpty()) {
+            ChatMessage first = old.get(0);
+            ChatMessage last = old.get(old.size() - 1);
+            int prepended = indexOf(first);
+            int end = prepended + old.size();
+            if (prepended >= 0 && end <= messages.size() && messages.get(end - 1).id == last.id) {
+                if (prepended > 0)
+                    notifyItemRangeInserted(0, prepended);
+                if (end < messages.size())
+                    notifyItemRangeInserted(end, messages.size() - end);
+                return;
+            }
         }
         notifyDataSetChanged();
     }
 
-    public Cursor getCursor() {
-        return cursor;
+    private int indexOf(ChatMessage msg) {
+        int lo = 0, hi = messages.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = messages.get(mid).compareTo(msg.time.getTime(), msg.id);
+            if (cmp == 0)
+                return mid;
+            if (cmp < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return -1;
     }
 
     @Override
@@ -76,8 +105,9 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
 
     @Override
     public void onBindViewHolder(MessageViewHolder holder, int position) {
-        cursor.moveToPosition(position);
-        ChatMessage msg = new ChatMessage(cursor, membershipList);
+        ChatMessage msg = messages.get(position);
+        if (position < PREFETCH && loadOlder != null)
+            loadOlder.run();
 
         if (msg.isFirstOnDay) {
             holder.horizontalRule.setVisibility(View.VISIBLE);
@@ -95,25 +125,17 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
 
     @Override
     public int getItemCount() {
-        return (cursor == null ? 0 : cursor.getCount());
+        return messages.size();
     }
 
     @Override
     public long getItemId(int position) {
-        if (cursor != null && cursor.moveToPosition(position)) {
-            return cursor.getId();
-        } else {
-            return -1;
-        }
+        return messages.get(position).id;
     }
 
     @Override
     public @ChatViewType int getItemViewType(int position) {
-        if (cursor == null || !cursor.moveToPosition(position)) {
-            //noinspection WrongConstant
-            return -1;
-        }
-        if (cursor.getIsSentByMe()) {
+        if (messages.get(position).sentByMe) {
             return TYPE_MESSAGE_SENT;
         } else {
             return TYPE_MESSAGE_RECEIVED;
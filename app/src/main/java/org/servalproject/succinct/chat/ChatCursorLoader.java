@@ -18,55 +18,129 @@
 package org.servalproject.succinct.chat;
 
 import android.content.AsyncTaskLoader;
-import android.content.Context;
-import android.database.Cursor;
 import android.util.Log;
 
 import org.servalproject.succinct.App;
+import org.servalproject.succinct.chat.ChatDatabase.ChatMessage;
 import org.servalproject.succinct.chat.ChatDatabase.ChatMessageCursor;
+import org.servalproject.succinct.team.MembershipList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Based on CursorLoader from the android support library
  * Handles Loader tasks without having to have a ContentProvider
+ *
+ * Keeps a window of recent messages, paging in older messages on request
+ * and merging newly inserted rows on each change notification
  */
-public class ChatCursorLoader extends AsyncTaskLoader<ChatMessageCursor> {
+public class ChatCursorLoader extends AsyncTaskLoader<List<ChatMessage>> {
     private static final String TAG = "ChatCursorLoader";
+    private static final int PAGE_SIZE = 100;
     private final ForceLoadContentObserver mObserver;
     private final App mApp;
-    private ChatMessageCursor mCursor;
+    private List<ChatMessage> mMessages;
+    private boolean mRegistered = false;
+
+    // only modified by loadInBackground
+    private final ArrayList<ChatMessage> window = new ArrayList<>();
+    private long lastId = -1;
+    private volatile boolean hasOlder = true;
+    private volatile boolean loadOlder = false;
 
     /* Runs on a worker thread */
     @Override
-    public ChatMessageCursor loadInBackground() {
+    public List<ChatMessage> loadInBackground() {
         Log.d(TAG, "loadInBackground");
         ChatDatabase db = ChatDatabase.getInstance(mApp);
-        ChatMessageCursor c = db.getChatMessageCursor();
-        // preload cursor count
-        c.getCount();
-        // register observer
-        c.registerContentObserver(mObserver);
-        c.setNotificationUri(getContext().getContentResolver(), ChatDatabase.URI_CHAT_DATA);
-        return c;
+        MembershipList members;
+        try {
+            members = mApp.teamStorage.getMembers();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        synchronized (window) {
+            if (window.isEmpty()) {
+                List<ChatMessage> latest = read(db.getLatestMessages(PAGE_SIZE), members, true);
+                hasOlder = latest.size() == PAGE_SIZE;
+                window.addAll(latest);
+            } else {
+                ChatMessage first = window.get(0);
+                for (ChatMessage msg : read(db.getNewMessages(lastId, first.time.getTime(), first.id), members, true))
+                    merge(msg);
+
+                if (loadOlder && hasOlder) {
+                    List<ChatMessage> older = read(db.getMessagesBefore(first.time.getTime(), first.id, PAGE_SIZE), members, false);
+                    hasOlder = older.size() == PAGE_SIZE;
+                    window.addAll(0, older);
+                }
+            }
+            loadOlder = false;
+            return Collections.unmodifiableList(new ArrayList<>(window));
+        }
+    }
+
+    private List<ChatMessage> read(ChatMessageCursor c, MembershipList members, boolean updateLastId) {
+        List<ChatMessage> ret = new ArrayList<>(c.getCount());
+        try {
+            while (c.moveToNext()) {
+                ChatMessage msg = new ChatMessage(c, members);
+                // an older page may include rows inserted since we last looked for new rows,
+                // so only new rows advance lastId
+                if (updateLastId && msg.id > lastId)
+                    lastId = msg.id;
+                ret.add(msg);
+            }
+        } finally {
+            c.close();
+        }
+        return ret;
+    }
+
+    // insert a new row into the window, in (time, _id) order
+    private void merge(ChatMessage msg) {
+        int lo = 0, hi = window.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = window.get(mid).compareTo(msg.time.getTime(), msg.id);
+            if (cmp == 0)
+                return;
+            if (cmp < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        window.add(lo, msg);
+        // the next message may no longer be the first on its day
+        if (lo + 1 < window.size()) {
+            ChatMessage next = window.get(lo + 1);
+            window.set(lo + 1, next.withFirstOnDay(!ChatMessage.isSameDay(msg.time, next.time)));
+        }
+    }
+
+    /* Runs on the UI thread */
+    public void loadOlder() {
+        if (loadOlder || !hasOlder)
+            return;
+        loadOlder = true;
+        forceLoad();
     }
 
     /* Runs on the UI thread */
     @Override
-    public void deliverResult(ChatMessageCursor cursor) {
+    public void deliverResult(List<ChatMessage> messages) {
         if (isReset()) {
             // An async query came in while the loader is stopped
-            if (cursor != null) {
-                cursor.close();
-            }
             return;
         }
-        Cursor oldCursor = mCursor;
-        mCursor = cursor;
+        mMessages = messages;
         if (isStarted()) {
-            Log.d(TAG, "super.deliverResult(cursor)");
-            super.deliverResult(cursor);
-        }
-        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
-            oldCursor.close();
+            Log.d(TAG, "super.deliverResult(messages)");
+            super.deliverResult(messages);
         }
     }
     public ChatCursorLoader(App app) {
@@ -83,10 +157,14 @@ public class ChatCursorLoader extends AsyncTaskLoader<ChatMessageCursor> {
      */
     @Override
     protected void onStartLoading() {
-        if (mCursor != null) {
-            deliverResult(mCursor);
+        if (!mRegistered) {
+            getContext().getContentResolver().registerContentObserver(ChatDatabase.URI_CHAT_DATA, false, mObserver);
+            mRegistered = true;
+        }
+        if (mMessages != null) {
+            deliverResult(mMessages);
         }
-        if (takeContentChanged() || mCursor == null) {
+        if (takeContentChanged() || mMessages == null) {
             forceLoad();
         }
     }
@@ -99,20 +177,20 @@ public class ChatCursorLoader extends AsyncTaskLoader<ChatMessageCursor> {
         cancelLoad();
     }
     @Override
-    public void onCanceled(ChatMessageCursor cursor) {
-        if (cursor != null && !cursor.isClosed()) {
-            cursor.close();
-        }
-    }
-    @Override
     protected void onReset() {
         super.onReset();
 
         // Ensure the loader is stopped
         onStopLoading();
-        if (mCursor != null && !mCursor.isClosed()) {
-            mCursor.close();
+        if (mRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mRegistered = false;
+        }
+        mMessages = null;
+        synchronized (window) {
+            window.clear();
+            lastId = -1;
+            hasOlder = true;
         }
-        mCursor = null;
     }
 }
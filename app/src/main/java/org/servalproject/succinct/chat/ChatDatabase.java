@@ -5,6 +5,7 @@ import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.BaseColumns;
@@ -18,6 +19,7 @@ import org.servalproject.succinct.storage.RecordIterator;
 import org.servalproject.succinct.team.MembershipList;
 import org.servalproject.succinct.team.TeamMember;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -31,8 +33,10 @@ import java.util.HashMap;
 
 public class ChatDatabase extends SQLiteOpenHelper {
     private static final String TAG = "ChatDatabase";
-    private static final String DATABASE_NAME = Environment.getExternalStorageDirectory() + "/succinct/chatlog.db"; // todo don't store on SD card?
-    private static final int DATABASE_VERSION = 2;
+    // app private storage, the messages can always be re-imported from team storage
+    private static final String DATABASE_NAME = "chatlog.db";
+    private static final File OLD_DATABASE = new File(Environment.getExternalStorageDirectory(), "succinct/chatlog.db");
+    private static final int DATABASE_VERSION = 5;
     public static final Uri URI_CHAT_DATA = Uri.parse("sqlite://" + BuildConfig.APPLICATION_ID + "/chatlog");
 
     private final App app;
@@ -83,6 +87,42 @@ public class ChatDatabase extends SQLiteOpenHelper {
             isFirstOnDay = c.getIsFirstOnDay();
             sentByMe = c.getIsSentByMe();
         }
+
+        private ChatMessage(ChatMessage other, boolean isFirstOnDay) {
+            id = other.id;
+            type = other.type;
+            sender = other.sender;
+            time = other.time;
+            message = other.message;
+            isRead = other.isRead;
+            sentByMe = other.sentByMe;
+            this.isFirstOnDay = isFirstOnDay;
+        }
+
+        // after merging rows into a loaded window, a message may no longer be the first on its day
+        public ChatMessage withFirstOnDay(boolean isFirstOnDay) {
+            if (isFirstOnDay == this.isFirstOnDay)
+                return this;
+            return new ChatMessage(this, isFirstOnDay);
+        }
+
+        // order of messages in the chat log
+        public int compareTo(long time, long id) {
+            long t = this.time.getTime();
+            if (t != time)
+                return t < time ? -1 : 1;
+            if (this.id != id)
+                return this.id < id ? -1 : 1;
+            return 0;
+        }
+
+        public static boolean isSameDay(Date one, Date two) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(one);
+            int day = cal.get(Calendar.YEAR)*1000+cal.get(Calendar.DAY_OF_YEAR);
+            cal.setTime(two);
+            return day == cal.get(Calendar.YEAR)*1000+cal.get(Calendar.DAY_OF_YEAR);
+        }
     }
 
     public static class ChatMessageCursor extends CursorWrapper {
@@ -93,6 +133,7 @@ public class ChatDatabase extends SQLiteOpenHelper {
         public static final int MESSAGE = 4;
         public static final int IS_READ = 5;
         public static final int IS_SENT_BY_ME = 6;
+        public static final int IS_FIRST_ON_DAY = 7;
 
         private ChatMessageCursor(Cursor c) {
             super(c);
@@ -106,42 +147,145 @@ public class ChatDatabase extends SQLiteOpenHelper {
         public boolean getIsRead() { return getInt(IS_READ) != 0; }
         public boolean getIsSentByMe() { return getInt(IS_SENT_BY_ME) != 0; }
 
-        public boolean getIsFirstOnDay() {
-            if (isFirst()) return true;
-            long day, prevDay;
-            Calendar cal = Calendar.getInstance();
-            cal.setTimeInMillis(getLong(TIME));
-            day = cal.get(Calendar.YEAR)*1000+cal.get(Calendar.DAY_OF_YEAR);
-            moveToPrevious();
-            cal.setTimeInMillis(getLong(TIME));
-            prevDay = cal.get(Calendar.YEAR)*1000+cal.get(Calendar.DAY_OF_YEAR);
-            moveToNext();
-            return (day != prevDay);
-        }
-
-        public static ChatMessageCursor getCursor(SQLiteDatabase db, long teamId, long mySenderId) {
+        // computed in SQL by comparing the day of the previous message in the team
+        public boolean getIsFirstOnDay() { return getInt(IS_FIRST_ON_DAY) != 0; }
+
+        // Select messages matching condition, in (time, _id) order.
+        // If limit > 0, only the last limit messages are returned.
+        private static ChatMessageCursor getCursor(SQLiteDatabase db, long teamId, long mySenderId,
+                                                   String condition, String[] args, int limit) {
+            final String MESSAGES = ChatMessageTable._TABLE_NAME;
+            final String PREVIOUS_TIME = "(SELECT prev." + ChatMessageTable.TIME
+                    + " FROM " + MESSAGES + " prev"
+                    + " WHERE prev." + ChatMessageTable.TEAM + " = " + MESSAGES + "." + ChatMessageTable.TEAM
+                    + " AND (prev." + ChatMessageTable.TIME + " < " + MESSAGES + "." + ChatMessageTable.TIME
+                    + " OR (prev." + ChatMessageTable.TIME + " = " + MESSAGES + "." + ChatMessageTable.TIME
+                    + " AND prev." + ChatMessageTable._ID + " < " + MESSAGES + "." + ChatMessageTable._ID + "))"
+                    + " ORDER BY prev." + ChatMessageTable.TIME + " DESC, prev." + ChatMessageTable._ID + " DESC LIMIT 1)";
             final String SELECT_CHAT_MESSAGES = "SELECT "
-                    + ChatMessageTable._TABLE_NAME + "." + ChatMessageTable._ID + ", "
+                    + MESSAGES + "." + ChatMessageTable._ID + ", "
                     + ChatMessageTable.TYPE + ", "
                     + SenderTable.PEER_ID + ", "
-                    + ChatMessageTable.TIME + ", "
+                    + MESSAGES + "." + ChatMessageTable.TIME + ", "
                     + ChatMessageTable.MESSAGE + ", "
                     + ChatMessageTable.IS_READ + ", "
-                    + "(" + ChatMessageTable.SENDER + " = " + mySenderId + ") AS sent_by_me"
-                    + " FROM " + ChatMessageTable._TABLE_NAME + " LEFT JOIN " + SenderTable._TABLE_NAME
+                    + "(" + ChatMessageTable.SENDER + " = " + mySenderId + ") AS sent_by_me, "
+                    + "(" + localDay(MESSAGES + "." + ChatMessageTable.TIME) + " IS NOT " + localDay(PREVIOUS_TIME) + ") AS first_on_day"
+                    + " FROM " + MESSAGES + " LEFT JOIN " + SenderTable._TABLE_NAME
                     + " ON " + ChatMessageTable.SENDER + " = " + SenderTable._TABLE_NAME + "." + SenderTable._ID
-                    + " AND " + ChatMessageTable._TABLE_NAME + "." + ChatMessageTable.TEAM + " = " + SenderTable._TABLE_NAME + "." + SenderTable.TEAM
-                    + " WHERE " + ChatMessageTable._TABLE_NAME + "." + ChatMessageTable.TEAM + " = " + teamId
-                    + " ORDER BY " + ChatMessageTable.TIME + ", " + ChatMessageTable._TABLE_NAME + "." + ChatMessageTable._ID;
-            return new ChatMessageCursor(db.rawQuery(SELECT_CHAT_MESSAGES, null));
+                    + " AND " + MESSAGES + "." + ChatMessageTable.TEAM + " = " + SenderTable._TABLE_NAME + "." + SenderTable.TEAM
+                    + " WHERE " + MESSAGES + "." + ChatMessageTable.TEAM + " = " + teamId
+                    + (condition == null ? "" : " AND " + condition);
+            String sql;
+            if (limit > 0) {
+                sql = "SELECT * FROM (" + SELECT_CHAT_MESSAGES
+                        + " ORDER BY " + MESSAGES + "." + ChatMessageTable.TIME + " DESC, " + MESSAGES + "." + ChatMessageTable._ID + " DESC"
+                        + " LIMIT " + limit + ")"
+                        + " ORDER BY " + ChatMessageTable.TIME + ", " + ChatMessageTable._ID;
+            } else {
+                sql = SELECT_CHAT_MESSAGES
+                        + " ORDER BY " + MESSAGES + "." + ChatMessageTable.TIME + ", " + MESSAGES + "." + ChatMessageTable._ID;
+            }
+            return new ChatMessageCursor(db.rawQuery(sql, args));
+        }
+
+        private static String localDay(String millis) {
+            return "date(" + millis + " / 1000, 'unixepoch', 'localtime')";
         }
     }
 
-    public ChatMessageCursor getChatMessageCursor() {
+    // the most recent page of messages
+    public ChatMessageCursor getLatestMessages(int limit) {
+        return getMessages(null, null, limit);
+    }
+
+    // a page of messages immediately before (time, id)
+    public ChatMessageCursor getMessagesBefore(long time, long id, int limit) {
+        return getMessages(keyCompare("<", time, id), null, limit);
+    }
+
+    // messages inserted after lastId, that sort at or after (time, id)
+    public ChatMessageCursor getNewMessages(long lastId, long time, long id) {
+        return getMessages(ChatMessageTable._TABLE_NAME + "." + ChatMessageTable._ID + " > " + lastId
+                + " AND NOT " + keyCompare("<", time, id), null, 0);
+    }
+
+    private ChatMessageCursor getMessages(String condition, String[] args, int limit) {
         SQLiteDatabase db = getReadableDatabase();
         long team = getTeamId(db, app.teamStorage.teamId);
         long me = getSenderId(db, team, app.networks.myId);
-        return ChatMessageCursor.getCursor(db, team, me);
+        return ChatMessageCursor.getCursor(db, team, me, condition, args, limit);
+    }
+
+    public static class SearchResultCursor extends ChatMessageCursor {
+        public static final int SNIPPET = 8;
+
+        private SearchResultCursor(Cursor c) {
+            super(c);
+        }
+
+        // message text around the matching terms, with matches wrapped in <b></b>
+        public String getSnippet() { return getString(SNIPPET); }
+    }
+
+    // Search messages in the current team, best matches first.
+    // Each word of the query matches any word starting with it.
+    public SearchResultCursor search(String query, int offset, int limit) {
+        String match = toMatchExpression(query);
+        if (match == null)
+            return null;
+
+        SQLiteDatabase db = getReadableDatabase();
+        long team = getTeamId(db, app.teamStorage.teamId);
+        long me = getSenderId(db, team, app.networks.myId);
+
+        final String MESSAGES = ChatMessageTable._TABLE_NAME;
+        final String SEARCH = SearchTable._TABLE_NAME;
+        // offsets() lists 4 numbers per matching term, so counting spaces ranks by the number of matches
+        final String OFFSETS = "offsets(" + SEARCH + ")";
+        final String MATCHES = "(length(" + OFFSETS + ") - length(replace(" + OFFSETS + ", ' ', '')))";
+        String sql = "SELECT "
+                + MESSAGES + "." + ChatMessageTable._ID + ", "
+                + ChatMessageTable.TYPE + ", "
+                + SenderTable.PEER_ID + ", "
+                + MESSAGES + "." + ChatMessageTable.TIME + ", "
+                + MESSAGES + "." + ChatMessageTable.MESSAGE + ", "
+                + ChatMessageTable.IS_READ + ", "
+                + "(" + ChatMessageTable.SENDER + " = " + me + ") AS sent_by_me, "
+                + "1 AS first_on_day, "
+                + "snippet(" + SEARCH + ", '<b>', '</b>', '\u2026', -1, 12) AS snippet"
+                + " FROM " + SEARCH
+                + " JOIN " + MESSAGES + " ON " + MESSAGES + "." + ChatMessageTable._ID + " = " + SEARCH + ".docid"
+                + " LEFT JOIN " + SenderTable._TABLE_NAME
+                + " ON " + ChatMessageTable.SENDER + " = " + SenderTable._TABLE_NAME + "." + SenderTable._ID
+                + " AND " + MESSAGES + "." + ChatMessageTable.TEAM + " = " + SenderTable._TABLE_NAME + "." + SenderTable.TEAM
+                + " WHERE " + SEARCH + " MATCH ?"
+                + " AND " + MESSAGES + "." + ChatMessageTable.TEAM + " = " + team
+                + " ORDER BY " + MATCHES + " DESC, "
+                + MESSAGES + "." + ChatMessageTable.TIME + " DESC, "
+                + MESSAGES + "." + ChatMessageTable._ID + " DESC"
+                + " LIMIT " + limit + " OFFSET " + offset;
+        return new SearchResultCursor(db.rawQuery(sql, new String[]{match}));
+    }
+
+    // quote each word so user input can't be parsed as query syntax
+    private static String toMatchExpression(String query) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : query.replace('"', ' ').trim().split("\\s+")) {
+            if (word.isEmpty())
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append('"').append(word).append("*\"");
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    // (time, _id) op (time, id), using the (team, time, ...) index
+    private static String keyCompare(String op, long time, long id) {
+        String t = ChatMessageTable._TABLE_NAME + "." + ChatMessageTable.TIME;
+        return "(" + t + " " + op + " " + time
+                + " OR (" + t + " = " + time + " AND " + ChatMessageTable._TABLE_NAME + "." + ChatMessageTable._ID + " " + op + " " + id + "))";
     }
 
     private static final class ChatMessageTable implements BaseColumns {
@@ -152,6 +296,20 @@ public class ChatDatabase extends SQLiteOpenHelper {
         private static final String SENDER = "sender";
         private static final String MESSAGE = "message";
         private static final String IS_READ = "is_read";
+        private static final String RECORD_OFFSET = "record_offset";
+    }
+
+    // how far we have imported each sender's chat file, updated in the same transaction as the messages
+    private static final class ImportTable {
+        private static final String _TABLE_NAME = "imports";
+        private static final String TEAM = "team";
+        private static final String SENDER = "sender";
+        private static final String RECORD_OFFSET = "record_offset";
+    }
+
+    // full text index of message text, keyed by messages._id and maintained by triggers
+    private static final class SearchTable {
+        private static final String _TABLE_NAME = "chatlog_search";
     }
 
     private static final class SenderTable implements BaseColumns {
@@ -172,6 +330,11 @@ public class ChatDatabase extends SQLiteOpenHelper {
         this.app = app;
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
     public static synchronized ChatDatabase getInstance (App app) {
         if (instance == null) {
             instance = new ChatDatabase(app);
@@ -183,38 +346,114 @@ public class ChatDatabase extends SQLiteOpenHelper {
         app.getContentResolver().notifyChange(URI_CHAT_DATA, null);
     }
 
+    // import any new records from this sender's chat file, resuming from where the last import finished
     public void insert(PeerId team, PeerId sender, RecordIterator<StoredChatMessage> records) throws IOException {
         SQLiteDatabase db = getWritableDatabase();
 
         long teamId = getTeamId(db, team);
         long senderId = getSenderId(db, teamId, sender);
+        int inserted = 0;
 
         db.beginTransaction();
-
-        ContentValues v = new ContentValues();
-        while (records.next()) {
-            StoredChatMessage msg = records.read();
-            if (msg.type != TYPE_MESSAGE) {
-                Log.e(TAG, "Unexpected StoredChatMessage type");
-                continue;
+        try {
+            records.seek(getImportOffset(db, teamId, senderId));
+            if (!records.next())
+                return;
+
+            // duplicates from a previous import are ignored by the unique index on (team, sender, record_offset)
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + ChatMessageTable._TABLE_NAME + " ("
+                    + ChatMessageTable.TEAM + ", "
+                    + ChatMessageTable.TYPE + ", "
+                    + ChatMessageTable.TIME + ", "
+                    + ChatMessageTable.SENDER + ", "
+                    + ChatMessageTable.MESSAGE + ", "
+                    + ChatMessageTable.IS_READ + ", "
+                    + ChatMessageTable.RECORD_OFFSET + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try {
+                do {
+                    StoredChatMessage msg = records.read();
+                    if (msg.type != TYPE_MESSAGE) {
+                        Log.e(TAG, "Unexpected StoredChatMessage type");
+                        continue;
+                    }
+                    insert.bindLong(1, teamId);
+                    insert.bindLong(2, msg.type);
+                    insert.bindLong(3, msg.time.getTime());
+                    insert.bindLong(4, senderId);
+                    insert.bindString(5, msg.message);
+                    insert.bindLong(6, 0); // todo true if self
+                    insert.bindLong(7, records.getOffset());
+                    if (insert.executeInsert() != -1)
+                        inserted++;
+                } while (records.next());
+            } finally {
+                insert.close();
             }
-            v.clear();
-            v.put(ChatMessageTable.TEAM, teamId);
-            v.put(ChatMessageTable.TYPE, msg.type);
-            v.put(ChatMessageTable.TIME, msg.time.getTime());
-            v.put(ChatMessageTable.SENDER, senderId);
-            v.put(ChatMessageTable.MESSAGE, msg.message);
-            v.put(ChatMessageTable.IS_READ, false); // todo true if self
-
-            Log.d(TAG, "insert chat message: " + v);
-            db.insert(ChatMessageTable._TABLE_NAME, null, v);
+
+            // next() stops at EOF, or the start of an incomplete record
+            setImportOffset(db, teamId, senderId, records.getOffset());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
-        db.setTransactionSuccessful();
-        db.endTransaction();
-        db.close();
+        if (inserted > 0)
+            notifyChange();
+    }
 
-        notifyChange();
+    // Drop messages of other teams that haven't been active within the configured retention period.
+    // Their record files remain in team storage, and would be re-imported if we rejoined the team.
+    public void archiveOldTeams(PeerId currentTeam) {
+        long days;
+        try {
+            days = Long.parseLong(app.getPrefs().getString(App.CHAT_RETENTION_DAYS, App.DefaultChatRetentionDays));
+        } catch (NumberFormatException e) {
+            days = Long.parseLong(App.DefaultChatRetentionDays);
+        }
+        if (days <= 0)
+            return;
+        long cutoff = System.currentTimeMillis() - days * 24 * 60 * 60 * 1000;
+
+        SQLiteDatabase db = getWritableDatabase();
+        String oldTeams = "SELECT " + TeamTable._ID + " FROM " + TeamTable._TABLE_NAME
+                + " WHERE " + TeamTable.TEAM + " != ?"
+                + " AND IFNULL((SELECT MAX(" + ChatMessageTable.TIME + ") FROM " + ChatMessageTable._TABLE_NAME
+                + " WHERE " + ChatMessageTable.TEAM + " = " + TeamTable._TABLE_NAME + "." + TeamTable._ID + "), 0) < " + cutoff;
+        String[] args = new String[]{currentTeam.toString()};
+
+        int deleted;
+        db.beginTransaction();
+        try {
+            deleted = db.delete(ChatMessageTable._TABLE_NAME, ChatMessageTable.TEAM + " IN (" + oldTeams + ")", args);
+            db.delete(ImportTable._TABLE_NAME, ImportTable.TEAM + " IN (" + oldTeams + ")", args);
+            db.delete(SenderTable._TABLE_NAME, SenderTable.TEAM + " IN (" + oldTeams + ")", args);
+            db.delete(TeamTable._TABLE_NAME, TeamTable._ID + " IN (" + oldTeams + ")", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        teamCache.clear();
+        senderCache.clear();
+        if (deleted > 0)
+            Log.v(TAG, "Archived " + deleted + " messages from old teams");
+    }
+
+    private long getImportOffset(SQLiteDatabase db, long team, long sender) {
+        Cursor c = db.rawQuery("SELECT " + ImportTable.RECORD_OFFSET + " FROM " + ImportTable._TABLE_NAME
+                + " WHERE " + ImportTable.TEAM + " = " + team + " AND " + ImportTable.SENDER + " = " + sender, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    private void setImportOffset(SQLiteDatabase db, long team, long sender, long offset) {
+        db.execSQL("INSERT OR REPLACE INTO " + ImportTable._TABLE_NAME + " ("
+                + ImportTable.TEAM + ", "
+                + ImportTable.SENDER + ", "
+                + ImportTable.RECORD_OFFSET + ") VALUES (?, ?, ?)",
+                new Object[]{team, sender, offset});
     }
 
     private long getTeamId(SQLiteDatabase db, PeerId team) {
@@ -272,10 +511,17 @@ public class ChatDatabase extends SQLiteOpenHelper {
                 + ChatMessageTable.TIME + " INTEGER NOT NULL, "
                 + ChatMessageTable.SENDER + " INTEGER, "
                 + ChatMessageTable.MESSAGE + " TEXT, "
-                + ChatMessageTable.IS_READ + " INTEGER NOT NULL )";
+                + ChatMessageTable.IS_READ + " INTEGER NOT NULL, "
+                + ChatMessageTable.RECORD_OFFSET + " INTEGER )";
+
+        String CREATE_CHAT_MESSAGE_RECORD_INDEX = "CREATE UNIQUE INDEX idx_chatlog_record ON "
+                + ChatMessageTable._TABLE_NAME + "(" + ChatMessageTable.TEAM + ", " + ChatMessageTable.SENDER + ", " + ChatMessageTable.RECORD_OFFSET + ")";
 
-        String CREATE_CHAT_MESSAGE_TIME_INDEX = "CREATE INDEX idx_chatlog_time ON "
-                + ChatMessageTable._TABLE_NAME + "(" + ChatMessageTable.TEAM + ", " + ChatMessageTable.TIME + ")";
+        String CREATE_IMPORT_TABLE = "CREATE TABLE " + ImportTable._TABLE_NAME + " ("
+                + ImportTable.TEAM + " INTEGER NOT NULL, "
+                + ImportTable.SENDER + " INTEGER NOT NULL, "
+                + ImportTable.RECORD_OFFSET + " INTEGER NOT NULL, "
+                + "PRIMARY KEY (" + ImportTable.TEAM + ", " + ImportTable.SENDER + ") )";
 
         String CREATE_SENDER_TABLE = "CREATE TABLE " + SenderTable._TABLE_NAME + " ("
                 + SenderTable._ID + " INTEGER PRIMARY KEY, "
@@ -292,17 +538,53 @@ public class ChatDatabase extends SQLiteOpenHelper {
                 + TeamTable.TEAM + " TEXT NOT NULL UNIQUE )";
 
         db.execSQL(CREATE_CHAT_MESSAGE_TABLE);
-        db.execSQL(CREATE_CHAT_MESSAGE_TIME_INDEX);
+        db.execSQL(CREATE_CHAT_MESSAGE_RECORD_INDEX);
+        db.execSQL(CREATE_IMPORT_TABLE);
         db.execSQL(CREATE_SENDER_TABLE);
         db.execSQL(CREATE_SENDER_PEER_ID_INDEX);
         db.execSQL(CREATE_TEAM_TABLE);
+        onUpgrade(db, 3, DATABASE_VERSION);
+
+        // everything in the old database on the SD card will be imported again
+        if (OLD_DATABASE.exists())
+            SQLiteDatabase.deleteDatabase(OLD_DATABASE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + ChatMessageTable._TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + SenderTable._TABLE_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + TeamTable._TABLE_NAME);
-        onCreate(db);
+        Log.d(TAG, "onUpgrade " + oldVersion + " -> " + newVersion);
+        if (oldVersion < 3) {
+            // no record offsets, so we can't tell what has been imported. Start again.
+            db.execSQL("DROP TABLE IF EXISTS " + ChatMessageTable._TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + SenderTable._TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + TeamTable._TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + ImportTable._TABLE_NAME);
+            db.execSQL("DROP TABLE IF EXISTS " + SearchTable._TABLE_NAME);
+            onCreate(db);
+            return;
+        }
+        if (oldVersion < 4) {
+            // covers the columns of the chat window queries except the message text
+            db.execSQL("DROP INDEX IF EXISTS idx_chatlog_time");
+            db.execSQL("CREATE INDEX idx_chatlog_team_time ON " + ChatMessageTable._TABLE_NAME + "("
+                    + ChatMessageTable.TEAM + ", "
+                    + ChatMessageTable.TIME + ", "
+                    + ChatMessageTable.SENDER + ", "
+                    + ChatMessageTable.TYPE + ", "
+                    + ChatMessageTable.IS_READ + ")");
+        }
+        if (oldVersion < 5) {
+            // external content, so message text isn't stored twice
+            db.execSQL("CREATE VIRTUAL TABLE " + SearchTable._TABLE_NAME + " USING fts4("
+                    + "content=\"" + ChatMessageTable._TABLE_NAME + "\", "
+                    + ChatMessageTable.MESSAGE + ")");
+            db.execSQL("CREATE TRIGGER chatlog_search_insert AFTER INSERT ON " + ChatMessageTable._TABLE_NAME + " BEGIN "
+                    + "INSERT INTO " + SearchTable._TABLE_NAME + " (docid, " + ChatMessageTable.MESSAGE + ")"
+                    + " VALUES (new." + ChatMessageTable._ID + ", new." + ChatMessageTable.MESSAGE + "); END");
+            db.execSQL("CREATE TRIGGER chatlog_search_delete BEFORE DELETE ON " + ChatMessageTable._TABLE_NAME + " BEGIN "
+                    + "DELETE FROM " + SearchTable._TABLE_NAME + " WHERE docid = old." + ChatMessageTable._ID + "; END");
+            // index anything imported before this version, new rows are added by the triggers
+            db.execSQL("INSERT INTO " + SearchTable._TABLE_NAME + " (" + SearchTable._TABLE_NAME + ") VALUES ('rebuild')");
+        }
     }
 }
@@ -19,6 +19,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Form {
 
@@ -64,6 +68,39 @@ public class Form {
 		return sb.toString();
 	}
 
+	// Compression is CPU bound, so bursts of records are spread over a few threads
+	// instead of queueing behind sync and chat work on the background handler
+	private static final int COMPRESS_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+	private static final int COMPRESS_QUEUE = 32;
+	private static final ThreadPoolExecutor compressExecutor = new ThreadPoolExecutor(
+			COMPRESS_THREADS, COMPRESS_THREADS, 30, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(COMPRESS_QUEUE));
+	static {
+		compressExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	// returns false, without running done, if too many records are already waiting to be compressed
+	public static boolean compressAsync(final Context context, final String formSpecification, final String completedRecord, final Runnable done){
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					compress(context, formSpecification, completedRecord);
+				}finally {
+					if (done!=null)
+						done.run();
+				}
+			}
+		};
+		try {
+			compressExecutor.execute(task);
+			return true;
+		}catch (RejectedExecutionException e){
+			Log.w(TAG, "Compression queue full");
+			return false;
+		}
+	}
+
 	public static void compress(Context context, File formSpecification, File completedRecord) throws IOException {
 		compress(context, readFile(formSpecification), readFile(completedRecord));
 	}
@@ -83,23 +120,31 @@ public class Form {
 
 		try{
 			RecordIterator<Form> iterator = store.openIterator(factory, app.networks.myId);
-			if (iterator.store.getProperty(uuid) == null){
+			if (!isSubmitted(iterator.store, uuid)){
 				Log.v(TAG, "Compressing record "+uuid);
-				Recipe recipe = new Recipe(formSpecification);
+				RecipeCache cache = RecipeCache.getInstance();
+				Recipe recipe = cache.acquire(formSpecification);
 				try{
 					Stats stats = Stats.getInstance(context);
 					byte[] compressed = recipe.compress(stats, stripped);
-					iterator.append(new Form(time, compressed));
-					iterator.store.putProperty(uuid, "submitted");
+					// the same record may have been compressed concurrently
+					synchronized (iterator.store){
+						if (isSubmitted(iterator.store, uuid))
+							return;
+						iterator.append(new Form(time, compressed));
+						iterator.store.putProperty(uuid, "submitted");
+					}
 					// store a copy of the form definition in a file
 					// (shouldn't matter who writes it first, the content should be the same)
 					RecordStore storeDefinition = store.openFile("forms/"+ Hex.toString(recipe.hash));
-					if (storeDefinition.EOF == 0){
-						storeDefinition.appendAt(0, formSpecification.getBytes("UTF-8"));
-						storeDefinition.flush(null);
+					synchronized (storeDefinition){
+						if (storeDefinition.EOF == 0){
+							storeDefinition.appendAt(0, formSpecification.getBytes("UTF-8"));
+							storeDefinition.flush(null);
+						}
 					}
 				}finally {
-					recipe.close();
+					cache.release(recipe);
 				}
 			}else{
 				Log.v(TAG, "Ignored record "+uuid+", already sent");
@@ -108,4 +153,10 @@ public class Form {
 			Log.e(TAG, e.getMessage(), e);
 		}
 	}
+
+	private static boolean isSubmitted(RecordStore file, String uuid){
+		synchronized (file){
+			return file.getProperty(uuid) != null;
+		}
+	}
 }
@@ -1,12 +1,11 @@
 package org.servalproject.succinct.forms;
 
+import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import org.servalproject.succinct.App;
-
 public class ReceiveNewMagpiRecord extends BroadcastReceiver {
 	private static final String ACTION="org.servalproject.succinctdata.ReceiveNewMagpiRecord";
 	private static final String TAG="ReceiveNewMagpiRecord";
@@ -23,13 +22,19 @@ public class ReceiveNewMagpiRecord extends BroadcastReceiver {
 
 			final PendingResult result = goAsync();
 
-			App.backgroundHandler.post(new Runnable() {
+			boolean queued = Form.compressAsync(appContext, formSpecification, completedRecord, new Runnable() {
 				@Override
 				public void run() {
-					Form.compress(appContext, formSpecification, completedRecord);
 					result.finish();
 				}
 			});
+			if (!queued){
+				// let the sender know we didn't accept the record, so it can be sent again later
+				Log.e(TAG, "Too many records waiting, rejecting record");
+				if (isOrderedBroadcast())
+					result.setResultCode(Activity.RESULT_CANCELED);
+				result.finish();
+			}
 		}
 	}
 }
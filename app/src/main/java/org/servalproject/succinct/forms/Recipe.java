@@ -9,6 +9,10 @@ import java.util.Map;
 public class Recipe {
 	private long ptr;
 	byte[] hash;
+	// managed by RecipeCache
+	int users;
+	boolean evicted;
+	long specLength;
 
 	private native void buildRecipe(String content);
 	private static native void closeRecipe(long ptr);
@@ -39,7 +43,13 @@ public class Recipe {
 	}
 
 	public byte[] compress(Stats stats, String stripped){
-		byte[] ret = compressForm(stats.ptr, this.ptr, stripped);
+		long handle = stats.acquireHandle();
+		byte[] ret;
+		try {
+			ret = compressForm(handle, this.ptr, stripped);
+		}finally {
+			stats.releaseHandle(handle);
+		}
 		if (ret == null)
 			throw new IllegalStateException("Failed to compress form");
 		return ret;
@@ -0,0 +1,85 @@
+package org.servalproject.succinct.forms;
+
+import android.util.Log;
+
+import org.servalproject.succinct.networking.Hex;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Recently used native recipes, so repeat submissions of the same form skip parsing the specification
+public class RecipeCache {
+	private static final String TAG = "RecipeCache";
+	private static final int MAX_RECIPES = 8;
+	// native recipe size is roughly proportional to the specification
+	private static final long MAX_SPEC_LENGTH = 2*1024*1024;
+
+	private static final RecipeCache instance = new RecipeCache();
+	public static RecipeCache getInstance(){
+		return instance;
+	}
+
+	// keyed by a digest of the form specification, least recently used first
+	private final LinkedHashMap<String, Recipe> recipes = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalLength = 0;
+
+	private RecipeCache(){}
+
+	private static String digest(String formSpecification){
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Hex.toString(digest.digest(formSpecification.getBytes(Charset.forName("UTF-8"))));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// The returned recipe must be released
+	synchronized Recipe acquire(String formSpecification){
+		String key = digest(formSpecification);
+		Recipe recipe = recipes.get(key);
+		if (recipe == null){
+			recipe = new Recipe(formSpecification);
+			recipe.specLength = formSpecification.length();
+			recipes.put(key, recipe);
+			totalLength += recipe.specLength;
+			trim();
+		}
+		recipe.users++;
+		return recipe;
+	}
+
+	synchronized void release(Recipe recipe){
+		recipe.users--;
+		if (recipe.evicted && recipe.users==0)
+			recipe.close();
+	}
+
+	// drop the least recently used recipes until we are within limits, always keeping the newest
+	private void trim(){
+		Iterator<Recipe> i = recipes.values().iterator();
+		while(recipes.size()>1 && (recipes.size()>MAX_RECIPES || totalLength>MAX_SPEC_LENGTH)){
+			evict(i.next());
+			i.remove();
+		}
+	}
+
+	private void evict(Recipe recipe){
+		totalLength -= recipe.specLength;
+		recipe.evicted = true;
+		if (recipe.users==0)
+			recipe.close();
+	}
+
+	// free all native recipes that aren't in use
+	public synchronized void evictAll(){
+		if (!recipes.isEmpty())
+			Log.v(TAG, "Evicting "+recipes.size()+" recipes");
+		for(Recipe recipe : recipes.values())
+			evict(recipe);
+		recipes.clear();
+	}
+}
@@ -4,12 +4,16 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.util.Log;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 class Stats {
 	private AssetManager am;
 	long ptr;
 	private static native long openStats(AssetManager am, String filename);
 	private static native void closeStats(long ptr);
+	private static native long cloneStats(long ptr);
 	private static native byte[] compressString(long stats, String text);
+	private static native String decompressString(long stats, byte[] compressed);
 
 	private static final String TAG = "Stats";
 
@@ -19,8 +23,25 @@ class Stats {
 		ptr = openStats(am, filename);
 	}
 
+	// Handles sharing our read only model, each used by one thread at a time
+	private final ConcurrentLinkedQueue<Long> handles = new ConcurrentLinkedQueue<>();
+
+	long acquireHandle(){
+		Long handle = handles.poll();
+		if (handle != null)
+			return handle;
+		long ret = cloneStats(ptr);
+		if (ret == 0)
+			throw new OutOfMemoryError("Failed to allocate stats handle");
+		return ret;
+	}
+
+	void releaseHandle(long handle){
+		handles.offer(handle);
+	}
+
 	private static Stats instance;
-	public static Stats getInstance(Context context){
+	public static synchronized Stats getInstance(Context context){
 		if (instance == null)
 			instance = new Stats(context, "smac.dat");
 		return instance;
@@ -28,16 +49,37 @@ class Stats {
 
 	void close(){
 		Log.v(TAG, "Close stats");
+		Long handle;
+		while((handle = handles.poll())!=null)
+			closeStats(handle);
 		closeStats(ptr);
 		ptr = 0;
 	}
 
 	public byte[] compress(String content){
-		byte[] ret = compressString(this.ptr, content);
+		long handle = acquireHandle();
+		byte[] ret;
+		try {
+			ret = compressString(handle, content);
+		}finally {
+			releaseHandle(handle);
+		}
 		if (ret == null)
 			throw new IllegalStateException();
 		return ret;
 	}
 
+	public String decompress(byte[] compressed){
+		long handle = acquireHandle();
+		String ret;
+		try {
+			ret = decompressString(handle, compressed);
+		}finally {
+			releaseHandle(handle);
+		}
+		if (ret == null)
+			throw new IllegalStateException();
+		return ret;
+	}
 
 }
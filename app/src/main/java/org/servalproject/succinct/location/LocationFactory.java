@@ -16,9 +16,145 @@ public class LocationFactory extends Factory<Location>{
 		return "location";
 	}
 
+	private static final int FLAG_ACCURACY = 1;
+	private static final int FLAG_ALTITUDE = 2;
+	private static final int FLAG_BEARING = 4;
+	private static final int FLAG_SPEED = 8;
+	// compact format, fixed point values with an interned provider
+	private static final int FLAG_COMPACT = 0x10;
+	// compact, and time / lat / lng are deltas from the previous record
+	private static final int FLAG_DELTA = 0x20;
+
+	private static final String[] providers = {"gps", "network", "passive", "fused"};
+	private static final int OTHER_PROVIDER = 0xFF;
+	// 1e-7 degrees, ~1cm
+	private static final double LAT_LNG_SCALE = 1e7;
+
+	@Override
+	public boolean isDeltaEncoded() {
+		return true;
+	}
+
+	@Override
+	public boolean isDelta(byte[] bytes) {
+		return bytes.length>0 && (bytes[0] & FLAG_DELTA)!=0;
+	}
+
+	@Override
+	public Location create(byte[] bytes, Location previous) {
+		return create(new DeSerialiser(bytes), previous);
+	}
+
+	private Location create(DeSerialiser serialiser, Location previous) {
+		int flags = serialiser.getByte() & 0xFF;
+		if ((flags & FLAG_COMPACT)==0)
+			return create(flags, serialiser);
+		if ((flags & FLAG_DELTA)!=0 && previous == null)
+			throw new IllegalStateException("Delta location record without a previous record");
+
+		int provider = serialiser.getByte() & 0xFF;
+		Location ret = new Location(provider == OTHER_PROVIDER ? serialiser.getString() : providers[provider]);
+		ret.setElapsedRealtimeNanos(0);
+		if ((flags & FLAG_DELTA)!=0){
+			ret.setTime(previous.getTime() + unZigZag(serialiser.getLong()));
+			ret.setLatitude((fixed(previous.getLatitude()) + unZigZag(serialiser.getLong())) / LAT_LNG_SCALE);
+			ret.setLongitude((fixed(previous.getLongitude()) + unZigZag(serialiser.getLong())) / LAT_LNG_SCALE);
+		}else{
+			ret.setTime(serialiser.getLong());
+			ret.setLatitude(serialiser.getRawInt() / LAT_LNG_SCALE);
+			ret.setLongitude(serialiser.getRawInt() / LAT_LNG_SCALE);
+		}
+		if ((flags & FLAG_ACCURACY)!=0)
+			ret.setAccuracy(serialiser.getLong() / 10f);
+		else
+			ret.removeAccuracy();
+		if ((flags & FLAG_ALTITUDE)!=0)
+			ret.setAltitude(unZigZag(serialiser.getLong()) / 10.0);
+		else
+			ret.removeAltitude();
+		if ((flags & FLAG_BEARING)!=0)
+			ret.setBearing(serialiser.getLong() / 10f);
+		else
+			ret.removeBearing();
+		if ((flags & FLAG_SPEED)!=0)
+			ret.setSpeed(serialiser.getLong() / 100f);
+		else
+			ret.removeSpeed();
+		return ret;
+	}
+
+	@Override
+	public byte[] serialise(Location obj, Location previous) {
+		Serialiser serialiser = Serialiser.obtain();
+		try {
+			serialise(serialiser, obj, previous);
+			return serialiser.getResult();
+		}finally {
+			serialiser.recycle();
+		}
+	}
+
+	private void serialise(Serialiser serialiser, Location obj, Location previous) {
+		int flags = FLAG_COMPACT;
+		if (obj.hasAccuracy())
+			flags|=FLAG_ACCURACY;
+		if (obj.hasAltitude())
+			flags|=FLAG_ALTITUDE;
+		if (obj.hasBearing())
+			flags|=FLAG_BEARING;
+		if (obj.hasSpeed())
+			flags|=FLAG_SPEED;
+		if (previous!=null)
+			flags|=FLAG_DELTA;
+		serialiser.putByte((byte) flags);
+
+		int provider = OTHER_PROVIDER;
+		for (int i=0;i<providers.length;i++){
+			if (providers[i].equals(obj.getProvider()))
+				provider = i;
+		}
+		serialiser.putByte((byte) provider);
+		if (provider == OTHER_PROVIDER)
+			serialiser.putString(obj.getProvider());
+
+		if (previous!=null){
+			serialiser.putLong(zigZag(obj.getTime() - previous.getTime()));
+			serialiser.putLong(zigZag(fixed(obj.getLatitude()) - fixed(previous.getLatitude())));
+			serialiser.putLong(zigZag(fixed(obj.getLongitude()) - fixed(previous.getLongitude())));
+		}else{
+			serialiser.putLong(obj.getTime());
+			serialiser.putRawInt((int) fixed(obj.getLatitude()));
+			serialiser.putRawInt((int) fixed(obj.getLongitude()));
+		}
+		if (obj.hasAccuracy())
+			serialiser.putLong(Math.round(obj.getAccuracy() * 10));
+		if (obj.hasAltitude())
+			serialiser.putLong(zigZag(Math.round(obj.getAltitude() * 10)));
+		if (obj.hasBearing())
+			serialiser.putLong(Math.round(obj.getBearing() * 10));
+		if (obj.hasSpeed())
+			serialiser.putLong(Math.round(obj.getSpeed() * 100));
+	}
+
+	private static long fixed(double degrees){
+		return Math.round(degrees * LAT_LNG_SCALE);
+	}
+
+	private static long zigZag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
 	@Override
 	public Location create(DeSerialiser serialiser) {
-		byte flags = serialiser.getByte();
+		return create(serialiser, null);
+	}
+
+	// the original format, a float or double for each value
+	private Location create(int flags, DeSerialiser serialiser) {
 		Location ret = new Location(serialiser.getString());
 		ret.setElapsedRealtimeNanos(0);
 		ret.setTime(serialiser.getRawLong());
@@ -45,28 +181,7 @@ public class LocationFactory extends Factory<Location>{
 
 	@Override
 	public void serialise(Serialiser serialiser, Location obj) {
-		byte flags =0;
-		if (obj.hasAccuracy())
-			flags|=1;
-		if (obj.hasAltitude())
-			flags|=2;
-		if (obj.hasBearing())
-			flags|=4;
-		if (obj.hasSpeed())
-			flags|=8;
-		serialiser.putByte(flags);
-		serialiser.putString(obj.getProvider());
-		serialiser.putRawLong(obj.getTime());
-		serialiser.putDouble(obj.getLatitude());
-		serialiser.putDouble(obj.getLongitude());
-		if (obj.hasAccuracy())
-			serialiser.putFloat(obj.getAccuracy());
-		if (obj.hasAltitude())
-			serialiser.putFloat((float) obj.getAltitude());
-		if (obj.hasBearing())
-			serialiser.putFloat(obj.getBearing());
-		if (obj.hasSpeed())
-			serialiser.putFloat(obj.getSpeed());
+		serialise(serialiser, obj, null);
 	}
 
 	/* packing format:
@@ -0,0 +1,48 @@
+package org.servalproject.succinct.location;
+
+import android.content.SharedPreferences;
+import android.location.Location;
+
+import org.servalproject.succinct.App;
+
+/**
+ * Decides which location fixes are worth storing, and sharing with the team
+ */
+class LocationFilter {
+    // never store fixes closer together than this
+    final long minInterval;
+    // store a fix this often, even if we haven't moved
+    final long stationaryInterval;
+    // minimum movement, in metres, before a fix is stored
+    final float minDistance;
+
+    LocationFilter(SharedPreferences prefs) {
+        minInterval = prefs.getLong(App.LOCATION_MIN_INTERVAL, App.DefaultLocationMinInterval);
+        stationaryInterval = prefs.getLong(App.LOCATION_STATIONARY_INTERVAL, App.DefaultLocationStationaryInterval);
+        minDistance = prefs.getFloat(App.LOCATION_MIN_DISTANCE, App.DefaultLocationMinDistance);
+    }
+
+    boolean accept(Location last, Location fix) {
+        if (last == null)
+            return true;
+
+        long delta = fix.getTime() - last.getTime();
+        if (delta < minInterval)
+            return false;
+
+        // the error circles of both fixes must be exceeded, otherwise it's probably just GPS noise
+        float distance = last.distanceTo(fix);
+        float threshold = Math.max(minDistance, accuracy(last) + accuracy(fix));
+        if (distance >= threshold)
+            return true;
+
+        // stationary, only report a much better fix or a periodic heartbeat
+        if (fix.hasAccuracy() && last.hasAccuracy() && fix.getAccuracy() * 2 < last.getAccuracy())
+            return true;
+        return delta >= stationaryInterval;
+    }
+
+    private static float accuracy(Location l) {
+        return l.hasAccuracy() ? l.getAccuracy() : 0;
+    }
+}
@@ -22,6 +22,8 @@ import org.servalproject.succinct.App;
 import org.servalproject.succinct.storage.RecordIterator;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by kieran on 21/07/17.
@@ -41,6 +43,11 @@ public class LocationService extends Service {
     private float minDistance = 0f;
     private boolean gpsEnabled = false;
     private RecordIterator<Location> iterator;
+    private LocationFilter filter;
+    // accepted fixes are written together, so each write is one sync round for our peers
+    private static final int BATCH_SIZE = 10;
+    private static final long BATCH_DELAY = 60 * 1000;
+    private final List<Location> pending = new ArrayList<>();
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -117,6 +124,7 @@ public class LocationService extends Service {
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "onCreate");
+        filter = new LocationFilter(((App) getApplication()).getPrefs());
 
 		try {
 			RecordIterator<Location> iterator =getIterator();
@@ -153,6 +161,8 @@ public class LocationService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "onDestroy");
+        App.UIHandler.removeCallbacks(writePending);
+        writePending.run();
         if (locationManager != null) {
             Log.d(TAG, "onDestroy un-registering for GPS updates");
             locationManager.removeUpdates(locationListener);
@@ -186,20 +196,39 @@ public class LocationService extends Service {
             }
         }
 
-        // todo logic with accuracy and timing to determine if new location should be used
-        try {
-			RecordIterator<Location> iterator =getIterator();
-			if (iterator!=null) {
-				iterator.append(newLocation);
-				lastLocation = newLocation;
-			}
-            LocalBroadcastManager.getInstance(LocationService.this).sendBroadcast(
-                    new Intent(GPS_STATUS).putExtra(GPS_STATUS_EXTRA_LOCATION, newLocation));
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
+        if (!filter.accept(lastLocation, newLocation)) {
+            Log.v(TAG, "Ignoring fix, not enough movement or too soon: " + newLocation);
+            return;
+        }
+
+        lastLocation = newLocation;
+        pending.add(newLocation);
+        if (pending.size() >= BATCH_SIZE) {
+            App.UIHandler.removeCallbacks(writePending);
+            writePending.run();
+        } else if (pending.size() == 1) {
+            App.UIHandler.postDelayed(writePending, BATCH_DELAY);
         }
+        LocalBroadcastManager.getInstance(LocationService.this).sendBroadcast(
+                new Intent(GPS_STATUS).putExtra(GPS_STATUS_EXTRA_LOCATION, newLocation));
     }
 
+    private final Runnable writePending = new Runnable() {
+        @Override
+        public void run() {
+            if (pending.isEmpty())
+                return;
+            try {
+                RecordIterator<Location> iterator = getIterator();
+                if (iterator != null)
+                    iterator.append(pending);
+            } catch (IOException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+            pending.clear();
+        }
+    };
+
     private final LocationListener locationListener = new LocationListener() {
         @Override
         public void onLocationChanged(Location location) {
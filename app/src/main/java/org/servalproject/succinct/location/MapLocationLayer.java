@@ -12,6 +12,7 @@ import org.mapsforge.core.graphics.Style;
 import org.mapsforge.core.model.BoundingBox;
 import org.mapsforge.core.model.LatLong;
 import org.mapsforge.core.model.Point;
+import org.mapsforge.core.util.MercatorProjection;
 import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
 import org.mapsforge.map.android.view.MapView;
 import org.mapsforge.map.layer.Layer;
@@ -25,7 +26,9 @@ import org.servalproject.succinct.storage.RecordIterator;
 import org.servalproject.succinct.storage.StorageWatcher;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -43,7 +46,18 @@ public class MapLocationLayer extends Layer {
     private App app;
     private Context context;
     private MarkerLocation myLocation;
-    private HashMap<PeerId, MarkerLocation> markers = new HashMap<>();
+    private final MarkerGrid markers = new MarkerGrid();
+    private final Paint clusterFill;
+    private final Paint clusterText;
+
+    // below this zoom level, nearby markers are drawn as a single cluster
+    private static final byte CLUSTER_ZOOM = 13;
+    private static final int CLUSTER_PIXELS = 48;
+    private static final int CLUSTER_RADIUS = 16;
+    // coalesce bursts of location updates into one redraw
+    private static final int REDRAW_DELAY = 250;
+    private final HashMap<PeerId, RecordIterator<Location>> pendingUpdates = new HashMap<>();
+    private boolean updatePosted = false;
 
     private StorageWatcher<Location> locationWatcher;
 
@@ -59,6 +73,76 @@ public class MapLocationLayer extends Layer {
         }
     }
 
+    // Markers bucketed by lat / lng cell, so drawing only visits the cells on screen
+    private static class MarkerGrid {
+        private static final double CELL_DEGREES = 0.01;
+        private final HashMap<PeerId, MarkerLocation> byPeer = new HashMap<>();
+        private final HashMap<Long, List<MarkerLocation>> cells = new HashMap<>();
+
+        private static long cell(double latitude, double longitude) {
+            return cell((int) Math.floor(latitude / CELL_DEGREES), (int) Math.floor(longitude / CELL_DEGREES));
+        }
+
+        private static long cell(int row, int col) {
+            return ((long) row << 32) | (col & 0xFFFFFFFFL);
+        }
+
+        void put(MarkerLocation l) {
+            remove(l.peer);
+            byPeer.put(l.peer, l);
+            long key = cell(l.latLong.latitude, l.latLong.longitude);
+            List<MarkerLocation> list = cells.get(key);
+            if (list == null) {
+                list = new ArrayList<>(2);
+                cells.put(key, list);
+            }
+            list.add(l);
+        }
+
+        void remove(PeerId peer) {
+            MarkerLocation old = byPeer.remove(peer);
+            if (old == null)
+                return;
+            long key = cell(old.latLong.latitude, old.latLong.longitude);
+            List<MarkerLocation> list = cells.get(key);
+            list.remove(old);
+            if (list.isEmpty())
+                cells.remove(key);
+        }
+
+        void clear() {
+            byPeer.clear();
+            cells.clear();
+        }
+
+        // markers in, or one cell beyond, the bounding box
+        void query(BoundingBox box, List<MarkerLocation> results) {
+            int minRow = (int) Math.floor(box.minLatitude / CELL_DEGREES) - 1;
+            int maxRow = (int) Math.floor(box.maxLatitude / CELL_DEGREES) + 1;
+            int minCol = (int) Math.floor(box.minLongitude / CELL_DEGREES) - 1;
+            int maxCol = (int) Math.floor(box.maxLongitude / CELL_DEGREES) + 1;
+            long cellCount = (long) (maxRow - minRow + 1) * (maxCol - minCol + 1);
+            if (cellCount > cells.size()) {
+                // zoomed out, cheaper to test each occupied cell
+                for (List<MarkerLocation> list : cells.values()) {
+                    MarkerLocation first = list.get(0);
+                    int row = (int) Math.floor(first.latLong.latitude / CELL_DEGREES);
+                    int col = (int) Math.floor(first.latLong.longitude / CELL_DEGREES);
+                    if (row >= minRow && row <= maxRow && col >= minCol && col <= maxCol)
+                        results.addAll(list);
+                }
+                return;
+            }
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int col = minCol; col <= maxCol; col++) {
+                    List<MarkerLocation> list = cells.get(cell(row, col));
+                    if (list != null)
+                        results.addAll(list);
+                }
+            }
+        }
+    }
+
     public MapLocationLayer(Bitmap myLocationMarker) {
         super();
 
@@ -71,6 +155,13 @@ public class MapLocationLayer extends Layer {
         radiusStroke.setStyle(Style.STROKE);
         radius = new Circle(null, 0, radiusFill, radiusStroke);
         marker = new Marker(null, myLocationMarker, 0, 0);
+        clusterFill = AndroidGraphicFactory.INSTANCE.createPaint();
+        clusterFill.setColor(Color.argb(200, 0, 0, 255));
+        clusterFill.setStyle(Style.FILL);
+        clusterText = AndroidGraphicFactory.INSTANCE.createPaint();
+        clusterText.setColor(Color.WHITE);
+        clusterText.setStyle(Style.FILL);
+        clusterText.setTextSize(CLUSTER_RADIUS);
 
     }
 
@@ -113,18 +204,16 @@ public class MapLocationLayer extends Layer {
                 protected void Visit(PeerId peer, RecordIterator<Location> records) throws IOException {
                     if (app.networks.myId.equals(peer))
                         return;
-                    // We only need the last location for each peer
-                    Location last = records.readLast();
-                    if (last!=null) {
-                        MarkerLocation l = new MarkerLocation(peer, last);
-                        markers.put(peer, l);
-                        if (haveDisplayModel)
-                            requestRedraw();
+                    // We only need the last location for each peer, read once the burst of updates is over
+                    pendingUpdates.put(peer, records);
+                    if (!updatePosted) {
+                        updatePosted = true;
+                        App.UIHandler.postDelayed(applyUpdates, REDRAW_DELAY);
                     }
                 }
             };
         }
-        markers.clear();
+        clearMarkers();
         locationBroadcastReceiver.register(context);
         if (locationWatcher!=null)
             locationWatcher.activate();
@@ -138,9 +227,42 @@ public class MapLocationLayer extends Layer {
         locationBroadcastReceiver.unregister(context);
         if (locationWatcher!=null)
             locationWatcher.deactivate();
+        App.UIHandler.removeCallbacks(applyUpdates);
+        updatePosted = false;
+        pendingUpdates.clear();
+        clearMarkers();
+    }
+
+    private synchronized void clearMarkers() {
         markers.clear();
     }
 
+    private synchronized void putMarker(MarkerLocation l) {
+        markers.put(l);
+    }
+
+    private final Runnable applyUpdates = new Runnable() {
+        @Override
+        public void run() {
+            updatePosted = false;
+            boolean changed = false;
+            for (Map.Entry<PeerId, RecordIterator<Location>> e : pendingUpdates.entrySet()) {
+                try {
+                    Location last = e.getValue().readLast();
+                    if (last != null) {
+                        putMarker(new MarkerLocation(e.getKey(), last));
+                        changed = true;
+                    }
+                } catch (IOException ex) {
+                    Log.e(TAG, ex.getMessage(), ex);
+                }
+            }
+            pendingUpdates.clear();
+            if (changed && haveDisplayModel)
+                requestRedraw();
+        }
+    };
+
     private final LocationService.LocationBroadcastReceiver locationBroadcastReceiver = new LocationService.LocationBroadcastReceiver() {
         @Override
         public void onDisabled() {
@@ -154,8 +276,7 @@ public class MapLocationLayer extends Layer {
 
         @Override
         public void onNewLocation(Location location) {
-            markers.put(app.networks.myId,
-                    (myLocation = new MarkerLocation(app.networks.myId, location)));
+            putMarker(myLocation = new MarkerLocation(app.networks.myId, location));
             if (waitingToCenter || alwaysCenter){
                 mapViewPosition.setCenter(myLocation.latLong);
                 waitingToCenter = false;
@@ -186,17 +307,59 @@ public class MapLocationLayer extends Layer {
 
     @Override
     public synchronized void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas, Point topLeftPoint) {
-        for(Map.Entry<PeerId, MarkerLocation> e : markers.entrySet()){
-            MarkerLocation l = e.getValue();
-            this.radius.setLatLong(l.latLong);
-            float accuracy = l.location.getAccuracy();
-            if (accuracy == 0)
-                accuracy = 40;
-            this.radius.setRadius(accuracy);
-            this.marker.setLatLong(l.latLong);
-            this.radius.draw(boundingBox, zoomLevel, canvas, topLeftPoint);
-            this.marker.draw(boundingBox, zoomLevel, canvas, topLeftPoint);
+        List<MarkerLocation> visible = new ArrayList<>();
+        markers.query(boundingBox, visible);
+        if (zoomLevel >= CLUSTER_ZOOM || visible.size() <= 1) {
+            for (MarkerLocation l : visible)
+                drawMarker(l, boundingBox, zoomLevel, canvas, topLeftPoint);
+            return;
+        }
+
+        // group markers that would overlap on screen
+        long mapSize = MercatorProjection.getMapSize(zoomLevel, getDisplayModel().getTileSize());
+        HashMap<Long, List<MarkerLocation>> clusters = new HashMap<>();
+        for (MarkerLocation l : visible) {
+            if (l == myLocation) {
+                drawMarker(l, boundingBox, zoomLevel, canvas, topLeftPoint);
+                continue;
+            }
+            long x = (long) (MercatorProjection.longitudeToPixelX(l.latLong.longitude, mapSize) / CLUSTER_PIXELS);
+            long y = (long) (MercatorProjection.latitudeToPixelY(l.latLong.latitude, mapSize) / CLUSTER_PIXELS);
+            Long key = (y << 32) | (x & 0xFFFFFFFFL);
+            List<MarkerLocation> list = clusters.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                clusters.put(key, list);
+            }
+            list.add(l);
         }
+        for (List<MarkerLocation> list : clusters.values()) {
+            if (list.size() == 1) {
+                drawMarker(list.get(0), boundingBox, zoomLevel, canvas, topLeftPoint);
+                continue;
+            }
+            double x = 0, y = 0;
+            for (MarkerLocation l : list) {
+                x += MercatorProjection.longitudeToPixelX(l.latLong.longitude, mapSize);
+                y += MercatorProjection.latitudeToPixelY(l.latLong.latitude, mapSize);
+            }
+            int cx = (int) (x / list.size() - topLeftPoint.x);
+            int cy = (int) (y / list.size() - topLeftPoint.y);
+            String count = Integer.toString(list.size());
+            canvas.drawCircle(cx, cy, CLUSTER_RADIUS, clusterFill);
+            canvas.drawText(count, cx - clusterText.getTextWidth(count) / 2, cy + clusterText.getTextHeight(count) / 2, clusterText);
+        }
+    }
+
+    private void drawMarker(MarkerLocation l, BoundingBox boundingBox, byte zoomLevel, Canvas canvas, Point topLeftPoint) {
+        this.radius.setLatLong(l.latLong);
+        float accuracy = l.location.getAccuracy();
+        if (accuracy == 0)
+            accuracy = 40;
+        this.radius.setRadius(accuracy);
+        this.marker.setLatLong(l.latLong);
+        this.radius.draw(boundingBox, zoomLevel, canvas, topLeftPoint);
+        this.marker.draw(boundingBox, zoomLevel, canvas, topLeftPoint);
     }
 
     @Override
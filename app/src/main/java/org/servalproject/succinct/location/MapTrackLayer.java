@@ -0,0 +1,277 @@
+package org.servalproject.succinct.location;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.location.Location;
+import android.util.Log;
+
+import org.mapsforge.core.graphics.Canvas;
+import org.mapsforge.core.graphics.Paint;
+import org.mapsforge.core.graphics.Path;
+import org.mapsforge.core.graphics.Style;
+import org.mapsforge.core.model.BoundingBox;
+import org.mapsforge.core.model.Point;
+import org.mapsforge.core.util.MercatorProjection;
+import org.mapsforge.map.android.graphics.AndroidGraphicFactory;
+import org.mapsforge.map.android.view.MapView;
+import org.mapsforge.map.layer.Layer;
+import org.servalproject.succinct.App;
+import org.servalproject.succinct.networking.PeerId;
+import org.servalproject.succinct.storage.RecordIterator;
+import org.servalproject.succinct.storage.StorageWatcher;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Draws the recent location history of each team member
+ */
+public class MapTrackLayer extends Layer {
+    private static final String TAG = "MapTrackLayer";
+    // most recent fixes kept for each peer
+    private static final int MAX_POINTS = 2000;
+    // simplified tracks may be this far from the original, in pixels
+    private static final double TOLERANCE = 2;
+
+    private final Paint paint;
+    private final Path path;
+    private final HashMap<PeerId, Track> tracks = new HashMap<>();
+    private App app;
+    private StorageWatcher<Location> locationWatcher;
+
+    private static class Track {
+        // ring buffer of fixes, oldest first from start
+        private final double[] latitude = new double[MAX_POINTS];
+        private final double[] longitude = new double[MAX_POINTS];
+        private int start;
+        private int count;
+        // where the next unread record starts
+        private long offset = -1;
+        private double minLatitude, maxLatitude, minLongitude, maxLongitude;
+        // pixel coordinates of the simplified track for each zoom level, cleared when fixes are added
+        private final HashMap<Byte, double[]> simplified = new HashMap<>();
+
+        private void add(double lat, double lng) {
+            int i = (start + count) % MAX_POINTS;
+            if (count == MAX_POINTS)
+                start = (start + 1) % MAX_POINTS;
+            else
+                count++;
+            latitude[i] = lat;
+            longitude[i] = lng;
+            simplified.clear();
+        }
+
+        private void updateBounds() {
+            minLatitude = minLongitude = Double.MAX_VALUE;
+            maxLatitude = maxLongitude = -Double.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int p = (start + i) % MAX_POINTS;
+                minLatitude = Math.min(minLatitude, latitude[p]);
+                maxLatitude = Math.max(maxLatitude, latitude[p]);
+                minLongitude = Math.min(minLongitude, longitude[p]);
+                maxLongitude = Math.max(maxLongitude, longitude[p]);
+            }
+        }
+
+        private boolean intersects(BoundingBox box) {
+            return count > 1
+                    && maxLatitude >= box.minLatitude && minLatitude <= box.maxLatitude
+                    && maxLongitude >= box.minLongitude && minLongitude <= box.maxLongitude;
+        }
+
+        private double[] getSimplified(byte zoomLevel, long mapSize) {
+            double[] ret = simplified.get(zoomLevel);
+            if (ret != null)
+                return ret;
+            double[] x = new double[count];
+            double[] y = new double[count];
+            for (int i = 0; i < count; i++) {
+                int p = (start + i) % MAX_POINTS;
+                x[i] = MercatorProjection.longitudeToPixelX(longitude[p], mapSize);
+                y[i] = MercatorProjection.latitudeToPixelY(latitude[p], mapSize);
+            }
+            boolean[] keep = simplify(x, y, TOLERANCE);
+            int kept = 0;
+            for (boolean k : keep)
+                if (k)
+                    kept++;
+            ret = new double[kept * 2];
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                if (!keep[i])
+                    continue;
+                ret[j++] = x[i];
+                ret[j++] = y[i];
+            }
+            simplified.put(zoomLevel, ret);
+            return ret;
+        }
+    }
+
+    // Douglas-Peucker, with an explicit stack so long tracks can't overflow the thread stack
+    static boolean[] simplify(double[] x, double[] y, double tolerance) {
+        int n = x.length;
+        boolean[] keep = new boolean[n];
+        if (n == 0)
+            return keep;
+        keep[0] = true;
+        keep[n - 1] = true;
+        int[] stack = new int[n * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        double tolerance2 = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double dx = x[last] - x[first];
+            double dy = y[last] - y[first];
+            double len2 = dx * dx + dy * dy;
+            double maxDist = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double px = x[i] - x[first];
+                double py = y[i] - y[first];
+                double dist;
+                if (len2 == 0) {
+                    dist = px * px + py * py;
+                } else {
+                    double cross = px * dy - py * dx;
+                    dist = cross * cross / len2;
+                }
+                if (dist > maxDist) {
+                    maxDist = dist;
+                    index = i;
+                }
+            }
+            if (index != -1 && maxDist > tolerance2) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        return keep;
+    }
+
+    public MapTrackLayer() {
+        super();
+        paint = AndroidGraphicFactory.INSTANCE.createPaint();
+        paint.setColor(Color.argb(150, 0, 0, 255));
+        paint.setStrokeWidth(3f);
+        paint.setStyle(Style.STROKE);
+        path = AndroidGraphicFactory.INSTANCE.createPath();
+    }
+
+    /**
+     * Read location history in the background, and follow new records as they arrive
+     * @param context
+     */
+    public void activate(Context context) {
+        Log.d(TAG, "activate");
+        app = (App) context.getApplicationContext();
+        if (locationWatcher == null && app.teamStorage != null) {
+            locationWatcher = new StorageWatcher<Location>(App.backgroundHandler, app.teamStorage, LocationFactory.factory) {
+                @Override
+                protected void Visit(PeerId peer, RecordIterator<Location> records) throws IOException {
+                    if (readTrack(peer, records))
+                        requestRedraw();
+                }
+            };
+        }
+        if (locationWatcher != null)
+            App.backgroundHandler.post(activateWatcher);
+    }
+
+    // activate visits every existing file, keep that off the UI thread
+    private final Runnable activateWatcher = new Runnable() {
+        @Override
+        public void run() {
+            locationWatcher.activate();
+        }
+    };
+
+    public void deactivate() {
+        Log.d(TAG, "deactivate");
+        App.backgroundHandler.removeCallbacks(activateWatcher);
+        if (locationWatcher != null)
+            locationWatcher.deactivate();
+        synchronized (this) {
+            tracks.clear();
+        }
+    }
+
+    public void addToMap(MapView map) {
+        map.getLayerManager().getLayers().add(this);
+    }
+
+    // append any fixes we haven't seen yet
+    private boolean readTrack(PeerId peer, RecordIterator<Location> records) throws IOException {
+        Track track;
+        synchronized (this) {
+            track = tracks.get(peer);
+        }
+        long offset = track == null ? -1 : track.offset;
+        if (offset < 0 || offset > records.store.EOF) {
+            // start with a window of the most recent fixes
+            records.end();
+            records.skip(false, MAX_POINTS);
+            offset = records.getOffset();
+            track = new Track();
+        }
+        records.seek(offset);
+
+        // decode outside the lock, so drawing isn't blocked by file reads
+        int n = 0;
+        double[] lat = new double[64];
+        double[] lng = new double[64];
+        while (records.next()) {
+            Location l = records.read();
+            if (n == lat.length) {
+                lat = Arrays.copyOf(lat, n * 2);
+                lng = Arrays.copyOf(lng, n * 2);
+            }
+            lat[n] = l.getLatitude();
+            lng[n] = l.getLongitude();
+            n++;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < n; i++)
+                track.add(lat[i], lng[i]);
+            track.offset = records.getOffset();
+            track.updateBounds();
+            tracks.put(peer, track);
+        }
+        return n > 0;
+    }
+
+    @Override
+    public synchronized void draw(BoundingBox boundingBox, byte zoomLevel, Canvas canvas, Point topLeftPoint) {
+        long mapSize = MercatorProjection.getMapSize(zoomLevel, getDisplayModel().getTileSize());
+        for (Track track : tracks.values()) {
+            if (!track.intersects(boundingBox))
+                continue;
+            double[] points = track.getSimplified(zoomLevel, mapSize);
+            path.clear();
+            for (int i = 0; i < points.length; i += 2) {
+                float x = (float) (points[i] - topLeftPoint.x);
+                float y = (float) (points[i + 1] - topLeftPoint.y);
+                if (i == 0)
+                    path.moveTo(x, y);
+                else
+                    path.lineTo(x, y);
+            }
+            canvas.drawPath(path, paint);
+        }
+    }
+
+    @Override
+    public synchronized void onDestroy() {
+        tracks.clear();
+        super.onDestroy();
+    }
+}
@@ -27,13 +27,17 @@ class ChatQueueWatcher extends QueueWatcher<StoredChatMessage> {
 	boolean generateMessage(PeerId peer, RecordIterator<StoredChatMessage> records) throws IOException {
 		StoredChatMessage msg = records.read();
 
-		Serialiser serialiser = new Serialiser();
-		serialiser.putByte((byte) (int) store.getMembers().getPosition(peer));
-		serialiser.putTime(msg.time.getTime(), store.getTeam().epoc);
-		serialiser.putString(msg.message);
-
-		int delay = app.getPrefs().getInt(App.MESSAGE_DELAY, 60000);
-		messageQueue.fragmentMessage(msg.time.getTime() + delay, MessageQueue.MESSAGE, serialiser.getResult());
+		Serialiser serialiser = Serialiser.obtain();
+		try {
+			serialiser.putByte((byte) (int) store.getMembers().getPosition(peer));
+			serialiser.putTime(msg.time.getTime(), store.getTeam().epoc);
+			serialiser.putString(msg.message);
+
+			int delay = app.getPrefs().getInt(App.MESSAGE_DELAY, 60000);
+			messageQueue.fragmentMessage(msg.time.getTime() + delay, MessageQueue.MESSAGE, serialiser.getResultBuffer());
+		}finally {
+			serialiser.recycle();
+		}
 		return true;
 	}
 }
@@ -0,0 +1,102 @@
+package org.servalproject.succinct.messaging;
+
+import org.servalproject.succinct.storage.DeSerialiser;
+import org.servalproject.succinct.storage.Serialiser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Several compressed records of the same form, from one team member, sent as a single message.
+ *
+ * Every compressed record begins with the same form hash, so it is only sent once,
+ * and each record's time is sent as a signed delta from the previous record.
+ *
+ * [position][first time][form hash]([zigzag time delta][length][record without hash])...
+ */
+class FormBatch {
+	// compressed records start with the first 6 bytes of the recipe hash
+	static final int HASH_LEN = 6;
+
+	final int position;
+	final List<Long> times = new ArrayList<>();
+	final List<byte[]> records = new ArrayList<>();
+	private byte[] hash;
+	private int length;
+
+	FormBatch(int position){
+		this.position = position;
+	}
+
+	static boolean sameForm(byte[] record, byte[] other){
+		if (record.length < HASH_LEN || other.length < HASH_LEN)
+			return false;
+		for (int i=0;i<HASH_LEN;i++){
+			if (record[i]!=other[i])
+				return false;
+		}
+		return true;
+	}
+
+	// worst case serialised size of this batch if the record was added
+	int sizeWith(byte[] record){
+		return (length == 0 ? 1 + 4 + HASH_LEN : length) + 5 + 5 + record.length - HASH_LEN;
+	}
+
+	boolean add(long time, byte[] record){
+		if (record.length < HASH_LEN)
+			return false;
+		if (hash == null)
+			hash = Arrays.copyOf(record, HASH_LEN);
+		else if (!sameForm(hash, record))
+			return false;
+		length = sizeWith(record);
+		times.add(time);
+		records.add(record);
+		return true;
+	}
+
+	int size(){
+		return records.size();
+	}
+
+	void write(Serialiser serialiser, long epoc){
+		serialiser.putByte((byte) position);
+		long first = times.get(0);
+		serialiser.putTime(first, epoc);
+		serialiser.putFixedBytes(hash);
+		// deltas in 0.1s, the same precision as putTime
+		// records may be compressed concurrently, so a record can be older than the one before it
+		long previous = units(first, epoc);
+		for (int i=0;i<records.size();i++){
+			long time = units(times.get(i), epoc);
+			long delta = time - previous;
+			serialiser.putLong((delta << 1) ^ (delta >> 63));
+			previous = time;
+			byte[] record = records.get(i);
+			serialiser.putBytes(record, HASH_LEN, record.length - HASH_LEN);
+		}
+	}
+
+	private static long units(long time, long epoc){
+		return time < epoc ? 0 : Math.min((time - epoc) / 100, 0x7FFFFFFF);
+	}
+
+	// Restore the original compressed records
+	static FormBatch read(DeSerialiser serialiser, long epoc){
+		FormBatch batch = new FormBatch(serialiser.getByte() & 0xFF);
+		long time = serialiser.getTime(epoc);
+		byte[] hash = serialiser.getFixedBytes(HASH_LEN);
+		while(serialiser.hasRemaining()){
+			long delta = serialiser.getLong();
+			time += ((delta >>> 1) ^ -(delta & 1)) * 100;
+			byte[] body = serialiser.getBytes();
+			byte[] record = new byte[HASH_LEN + body.length];
+			System.arraycopy(hash, 0, record, 0, HASH_LEN);
+			System.arraycopy(body, 0, record, HASH_LEN, body.length);
+			batch.add(time, record);
+		}
+		return batch;
+	}
+}
@@ -14,21 +14,51 @@ import java.io.IOException;
  * Created by jeremy on 28/11/17.
  */
 class FormQueueWatcher extends QueueWatcher<Form> {
+	private static final String TAG = "FormQueueWatcher";
 
 	public FormQueueWatcher(MessageQueue messageQueue, App app) {
 		super(messageQueue, app, Form.factory);
 	}
 
+	// limits on how many waiting records are sent together, see FormBatch
+	private static final int MAX_BATCH_RECORDS = 16;
+	private static final int MAX_BATCH_BYTES = 1000;
+
 	@Override
 	boolean generateMessage(PeerId peer, RecordIterator<Form> records) throws IOException {
 		int pos = store.getMembers().getPosition(peer);
+		long epoc = store.getTeam().epoc;
 		Form form = records.read();
-		Serialiser serialiser = new Serialiser();
-		serialiser.putByte((byte) pos);
-		serialiser.putTime(form.time, store.getTeam().epoc);
-		serialiser.putFixedBytes(form.record);
 		int delay = app.getPrefs().getInt(App.FORM_DELAY, 60000);
-		messageQueue.fragmentMessage(form.time + delay, MessageQueue.FORM, serialiser.getResult());
+
+		FormBatch batch = new FormBatch(pos);
+		batch.add(form.time, form.record);
+		if (app.getPrefs().getBoolean(App.FORM_BATCH, false)) {
+			// include any following records of the same form that are also waiting to be sent
+			while (batch.size() < MAX_BATCH_RECORDS && records.next()) {
+				Form next = records.read();
+				if (batch.sizeWith(next.record) > MAX_BATCH_BYTES || !batch.add(next.time, next.record)) {
+					records.prev();
+					break;
+				}
+			}
+		}
+
+		Serialiser serialiser = Serialiser.obtain();
+		try {
+			if (batch.size() <= 1) {
+				serialiser.putByte((byte) pos);
+				serialiser.putTime(form.time, epoc);
+				serialiser.putFixedBytes(form.record);
+				messageQueue.fragmentMessage(form.time + delay, MessageQueue.FORM, serialiser.getResultBuffer());
+			} else {
+				Log.v(TAG, "Sending " + batch.size() + " form records together");
+				batch.write(serialiser, epoc);
+				messageQueue.fragmentMessage(form.time + delay, MessageQueue.FORM_BATCH, serialiser.getResultBuffer());
+			}
+		}finally {
+			serialiser.recycle();
+		}
 		return true;
 	}
 }
@@ -3,6 +3,7 @@ package org.servalproject.succinct.messaging;
 import org.servalproject.succinct.networking.PeerId;
 import org.servalproject.succinct.storage.DeSerialiser;
 import org.servalproject.succinct.storage.Factory;
+import org.servalproject.succinct.storage.RecordIterator;
 import org.servalproject.succinct.storage.Serialiser;
 
 import java.nio.ByteBuffer;
@@ -90,4 +91,23 @@ public class Fragment  {
 		}
 	};
 
+	// just the sequence number of a stored fragment
+	public static final Factory.Field<Fragment, Integer> seqField = new Factory.Field<Fragment, Integer>() {
+		@Override
+		public Integer get(DeSerialiser serialiser) {
+			serialiser.getRawLong();
+			if (serialiser.remaining()<13)
+				return -1;
+			serialiser.skip(PeerId.LEN);
+			return serialiser.getRawInt();
+		}
+	};
+
+	// the same as seqField, for a record that hasn't been read yet
+	public static int getSeq(RecordIterator.RecordHeader header){
+		if (header.getLength() < 8 + 13)
+			return -1;
+		return header.getInt(8 + PeerId.LEN);
+	}
+
 }
@@ -30,10 +30,13 @@ import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class HttpTransport {
 	private final MessageQueue queue;
@@ -43,7 +46,29 @@ class HttpTransport {
 	private final ConnectivityManager connectivityManager;
 	private long nextHttpCheck;
 	private static final String TAG = "HttpTransport";
-	private final Map<String, RecordStore> newFormDefinitions = new HashMap<>();
+	// copy form definitions to the server in large chunks
+	private static final int UPLOAD_BUFFER = 64*1024;
+	// maximum number of form hashes to check in one request
+	private static final int MAX_FORM_CHECK = 64;
+
+	private static class PendingForm{
+		private final RecordStore file;
+		private int failures;
+		private long retryAfter;
+
+		private PendingForm(RecordStore file){
+			this.file = file;
+		}
+
+		// back off from 1 minute, up to about an hour
+		private void failed(){
+			failures++;
+			retryAfter = SystemClock.elapsedRealtime() + (60000L << Math.min(failures - 1, 6));
+		}
+	}
+	private final Map<String, PendingForm> newFormDefinitions = new ConcurrentHashMap<>();
+	// cleared if the server can't check many form hashes at once
+	private boolean batchFormCheck = true;
 	private final AndroidObserver formDefinitionWatcher = new AndroidObserver() {
 		@Override
 		public void observe(Observable observable, Object o) {
@@ -57,7 +82,7 @@ class HttpTransport {
 				return;
 			if ("true".equals(file.getProperty("uploaded")))
 				return;
-			newFormDefinitions.put(file.filename.getName(), file);
+			newFormDefinitions.put(name, new PendingForm(file));
 		}
 	};
 
@@ -159,7 +184,7 @@ class HttpTransport {
 		return baseUrl;
 	}
 
-	private void markAck(int seq) throws IOException {
+	private void markAck(final int seq) throws IOException {
 		if (seq <-1 || seq >= queue.nextFragmentSeq)
 			throw new IllegalStateException("Sequence out of range ("+seq+", "+queue.nextFragmentSeq+")");
 
@@ -172,44 +197,37 @@ class HttpTransport {
 			return;
 		}
 
-		int first = 0;
-		int last = queue.nextFragmentSeq -1;
-		{
-			Fragment current = fragments.read();
-			if (current != null) {
-				int currentSeq = current.seq;
-				if (seq >= currentSeq)
+		Integer currentSeq = fragments.read(Fragment.seqField);
+		if (currentSeq == null || currentSeq != seq) {
+			int first = 0;
+			int last = queue.nextFragmentSeq - 1;
+			if (currentSeq != null) {
+				if (seq > currentSeq)
 					first = currentSeq;
 				else
 					last = currentSeq;
 			}
-		}
-		boolean forwards = (seq - first) < (last - seq);
-		if (forwards && first == 0) {
-			fragments.start();
-			if (!fragments.next())
-				throw new IllegalStateException("Seq "+seq+" not found!");
-		}
-		if (!forwards && last == queue.nextFragmentSeq -1) {
-			fragments.end();
-			if (!fragments.prev())
+			boolean forwards = (seq - first) < (last - seq);
+			if (forwards && first == 0)
+				fragments.start();
+			else if (!forwards && last == queue.nextFragmentSeq - 1)
+				fragments.end();
+			// compare sequence numbers in large blocks, only decoding the match
+			List<Fragment> found = fragments.scan(forwards, 1, new RecordIterator.RecordFilter() {
+				@Override
+				public boolean accept(RecordIterator.RecordHeader header) {
+					return Fragment.getSeq(header) == seq;
+				}
+			});
+			if (found.isEmpty())
 				throw new IllegalStateException("Seq "+seq+" not found!");
 		}
-		while(true){
-			Fragment fragment = fragments.read();
-			if (fragment.seq == seq) {
-				fragments.next();
-				fragments.mark("http_acked");
-				// if we've acked beyond what we've sent via other transports,
-				// we can mark that offset as sent too
-				if (fragments.getOffset()>fragments.store.getMark("sending"))
-					fragments.mark("sending");
-				return;
-			}
-			if (!(forwards ? fragments.next() : fragments.prev()))
-				break;
-		}
-		throw new IllegalStateException("Seq "+seq+" not found!");
+		fragments.next();
+		fragments.mark("http_acked");
+		// if we've acked beyond what we've sent via other transports,
+		// we can mark that offset as sent too
+		if (fragments.getOffset()>fragments.store.getMark("sending"))
+			fragments.mark("sending");
 	}
 
 	void sendViaHttp(){
@@ -277,69 +295,145 @@ class HttpTransport {
 		}
 	}
 
+	// ask the server which of these forms it already has
+	private Set<String> haveForms(String baseUrl, List<PendingForm> forms) throws IOException {
+		Set<String> ret = new HashSet<>();
+		if (batchFormCheck) {
+			StringBuilder hashes = new StringBuilder();
+			for (PendingForm form : forms)
+				hashes.append(form.file.filename.getName()).append('\n');
+			byte[] body = hashes.toString().getBytes("UTF-8");
+
+			URL url = new URL(baseUrl + "/succinct/api/v1/haveForms?key=" + BuildConfig.directApiKey);
+			Log.v(TAG, "Connecting to "+url);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setRequestMethod("POST");
+				connection.setRequestProperty("Connection", "keep-alive");
+				connection.setRequestProperty("Content-Type", "text/plain");
+				connection.setFixedLengthStreamingMode(body.length);
+				connection.connect();
+				OutputStream out = connection.getOutputStream();
+				out.write(body);
+				out.close();
+				int response = connection.getResponseCode();
+				if (response == 200) {
+					// one hash per line, of the forms the server already has
+					for (String hash : readString(connection).split("\n")) {
+						hash = hash.trim();
+						if (!"".equals(hash))
+							ret.add(hash);
+					}
+					return ret;
+				}
+				if (response != 404) {
+					Log.e(TAG, "Unexpected http response code " + response);
+					return null;
+				}
+				Log.v(TAG, "Server can't check forms in bulk, asking about each form");
+				batchFormCheck = false;
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		for (PendingForm form : forms) {
+			String hash = form.file.filename.getName();
+			URL url = new URL(baseUrl + "/succinct/api/v1/haveForm/" + hash + "?key=" + BuildConfig.directApiKey);
+			Log.v(TAG, "Connecting to "+url);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			try {
+				connection.setRequestProperty("Connection", "keep-alive");
+				connection.connect();
+				int response = connection.getResponseCode();
+				if (response != 200) {
+					Log.v(TAG, "Unexpected http response code " + response);
+					return null;
+				}
+				if (!"false".equals(readString(connection)))
+					ret.add(hash);
+			}finally{
+				connection.disconnect();
+			}
+		}
+		return ret;
+	}
+
+	private boolean uploadForm(String baseUrl, PendingForm form) throws IOException {
+		RecordStore file = form.file;
+		long length = file.EOF;
+		URL url = new URL(baseUrl + "/succinct/api/v1/uploadForm/" + file.filename.getName() + "?key=" + BuildConfig.directApiKey);
+		Log.v(TAG, "Connecting to "+url);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Connection", "keep-alive");
+			connection.setRequestProperty("Content-Type", "application/octet-stream");
+			connection.setFixedLengthStreamingMode((int) length);
+			connection.connect();
+
+			OutputStream out = connection.getOutputStream();
+			file.copyTo(0, length, out, UPLOAD_BUFFER);
+			out.close();
+			int response = connection.getResponseCode();
+			if (response != 200) {
+				Log.e(TAG, "Unexpected http response code " + response);
+				return false;
+			}
+			return true;
+		}finally{
+			connection.disconnect();
+		}
+	}
+
 	private void uploadFormDefinitions() {
+		if (newFormDefinitions.isEmpty())
+			return;
 		String baseUrl = getBaseUrl();
 		if (baseUrl == null)
 			return;
 
-		Iterator<Map.Entry<String,RecordStore>> i = newFormDefinitions.entrySet().iterator();
-		while(i.hasNext()){
+		long now = SystemClock.elapsedRealtime();
+		List<PendingForm> ready = new ArrayList<>();
+		for (PendingForm form : newFormDefinitions.values()) {
+			if (form.retryAfter <= now)
+				ready.add(form);
+		}
+
+		for (int start = 0; start < ready.size(); start += MAX_FORM_CHECK) {
+			List<PendingForm> batch = ready.subList(start, Math.min(ready.size(), start + MAX_FORM_CHECK));
+			Set<String> existing;
 			try {
-				Map.Entry<String, RecordStore> e = i.next();
-				RecordStore store = e.getValue();
-				String hash = store.filename.getName();
-				URL url = new URL(baseUrl + "/succinct/api/v1/haveForm/" + hash + "?key=" + BuildConfig.directApiKey);
-				Log.v(TAG, "Connecting to "+url);
-				String result = null;
-				HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+				existing = haveForms(baseUrl, batch);
+			} catch (IOException e) {
+				Log.e(TAG, e.getMessage(), e);
+				return;
+			}
+			if (existing == null)
+				return;
+
+			for (PendingForm form : batch) {
+				String hash = form.file.filename.getName();
 				try {
-					connection.setRequestProperty("Connection", "keep-alive");
-					connection.connect();
-					int response = connection.getResponseCode();
-					if (response != 200) {
-						Log.v(TAG, "Unexpected http response code " + response);
-						return;
+					// a rejected form shouldn't prevent the others from being uploaded
+					if (!existing.contains(hash) && !uploadForm(baseUrl, form)) {
+						form.failed();
+						continue;
 					}
-					result = readString(connection);
-				}finally{
-					connection.disconnect();
+				} catch (IOException e) {
+					// probably lost our connection, try again later
+					Log.e(TAG, e.getMessage(), e);
+					form.failed();
+					return;
 				}
-
-				if ("false".equals(result)){
-					url = new URL(baseUrl + "/succinct/api/v1/uploadForm/" + hash + "?key=" + BuildConfig.directApiKey);
-					Log.v(TAG, "Connecting to "+url);
-					connection = (HttpURLConnection) url.openConnection();
-					try {
-						connection.setRequestMethod("POST");
-						connection.setRequestProperty("Connection", "keep-alive");
-						connection.setRequestProperty("Content-Type", "application/octet-stream");
-						connection.setFixedLengthStreamingMode((int) store.EOF);
-						connection.connect();
-
-						OutputStream out = connection.getOutputStream();
-						byte buff[] = new byte[1024];
-						long offset = 0;
-						while (true) {
-							int read = store.read(offset, buff);
-							if (read <= 0)
-								break;
-							out.write(buff, 0, read);
-							offset+=read;
-						}
-						out.close();
-						int response = connection.getResponseCode();
-						if (response != 200) {
-							Log.e(TAG, "Unexpected http response code " + response);
-							return;
-						}
-					}finally{
-						connection.disconnect();
-					}
+				try {
+					form.file.putProperty("uploaded", "true");
+				} catch (IOException e) {
+					// the server will be asked again next time
+					Log.e(TAG, e.getMessage(), e);
+					continue;
 				}
-				store.putProperty("uploaded", "true");
-				i.remove();
-			}catch (IOException e){
-				Log.e(TAG, e.getMessage(), e);
+				newFormDefinitions.remove(hash);
 			}
 		}
 	}
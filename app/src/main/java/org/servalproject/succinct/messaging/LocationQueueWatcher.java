@@ -10,6 +10,7 @@ import org.servalproject.succinct.storage.RecordIterator;
 import org.servalproject.succinct.storage.Serialiser;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by jeremy on 28/11/17.
@@ -61,16 +62,20 @@ class LocationQueueWatcher extends QueueWatcher<Location> {
 	public boolean nextMessage() throws IOException {
 		if (!hasMessage())
 			return false;
-		serialiser = new Serialiser();
-		super.nextMessage();
-		long now = System.currentTimeMillis();
-		byte[] message = serialiser.getResult();
-		if (message.length > 0) {
+		serialiser = Serialiser.obtain();
+		try {
+			super.nextMessage();
+			long now = System.currentTimeMillis();
+			ByteBuffer message = serialiser.getResultBuffer();
+			if (!message.hasRemaining())
+				return false;
 			messageQueue.fragmentMessage(now, MessageQueue.LOCATION, message);
 			long delay = app.getPrefs().getLong(App.LOCATION_INTERVAL, App.DefaultLocationInterval);
 			nextLocationMessage = now + delay;
+			return true;
+		}finally {
+			serialiser.recycle();
+			serialiser = null;
 		}
-		serialiser = null;
-		return message.length > 0;
 	}
 }
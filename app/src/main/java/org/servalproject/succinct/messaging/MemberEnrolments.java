@@ -31,30 +31,35 @@ class MemberEnrolments implements IMessageSource {
 	@Override
 	public boolean nextMessage() throws IOException {
 		members.reset("sent");
-		Serialiser serialiser = new Serialiser();
+		Serialiser serialiser = Serialiser.obtain();
 		boolean sent = false;
 
-		while (members.next()) {
-			Membership m = members.read();
-			int pos = store.getMembers().getPosition(m.peerId);
-			if (pos > 255)
-				continue;
+		try {
+			while (members.next()) {
+				Membership m = members.read();
+				int pos = store.getMembers().getPosition(m.peerId);
+				if (pos > 255)
+					continue;
 
-			TeamMember member = store.getMembers().getTeamMember(m.peerId);
-			if (member == null)
-				break;
+				TeamMember member = store.getMembers().getTeamMember(m.peerId);
+				if (member == null)
+					break;
 
-			serialiser.putByte((byte) pos);
-			serialiser.putTime(m.time, store.getTeam().epoc);
-			if (m.enroll) {
-				serialiser.putString(member.name);
-				serialiser.putString(member.employeeId);
+				serialiser.clear();
+				serialiser.putByte((byte) pos);
+				serialiser.putTime(m.time, store.getTeam().epoc);
+				if (m.enroll) {
+					serialiser.putString(member.name);
+					serialiser.putString(member.employeeId);
 
-				messageQueue.fragmentMessage(m.time, MessageQueue.ENROLL, serialiser.getResult());
-			} else {
-				messageQueue.fragmentMessage(m.time, MessageQueue.LEAVE, serialiser.getResult());
+					messageQueue.fragmentMessage(m.time, MessageQueue.ENROLL, serialiser.getResultBuffer());
+				} else {
+					messageQueue.fragmentMessage(m.time, MessageQueue.LEAVE, serialiser.getResultBuffer());
+				}
+				sent = true;
 			}
-			sent = true;
+		}finally {
+			serialiser.recycle();
 		}
 		members.mark("sent");
 		return sent;
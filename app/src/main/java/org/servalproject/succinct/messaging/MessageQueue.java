@@ -23,6 +23,7 @@ import org.servalproject.succinct.utils.WakeAlarm;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -173,6 +174,7 @@ public class MessageQueue {
 	static final byte LOCATION = 4;
 	static final byte MESSAGE = 5;
 	static final byte FORM = 6;
+	static final byte FORM_BATCH = 7;
 
 	private boolean endFragment() throws IOException {
 		if (fragmentBuff.position()<=4)
@@ -220,13 +222,15 @@ public class MessageQueue {
 	}
 
 	void fragmentMessage(long deadline, byte messageType, byte[] messageBytes) throws IOException {
-		fragmentMessage(deadline, messageType, messageBytes, messageBytes.length);
+		fragmentMessage(deadline, messageType, ByteBuffer.wrap(messageBytes));
 	}
 
-	private void fragmentMessage(long deadline, byte messageType, byte[] messageBytes, int length) throws IOException {
+	// consumes the remaining bytes of message
+	void fragmentMessage(long deadline, byte messageType, ByteBuffer message) throws IOException {
 		int offset = -3;
+		int length = message.remaining();
 
-		Log.v(TAG, "Fragmenting "+messageType+" message, deadline in "+(deadline - System.currentTimeMillis())+"ms "+Hex.toString(messageBytes, 0, length));
+		Log.v(TAG, "Fragmenting "+messageType+" message, deadline in "+(deadline - System.currentTimeMillis())+"ms "+Hex.toString(message));
 
 		while (offset < length) {
 			int len = length - offset;
@@ -248,7 +252,10 @@ public class MessageQueue {
 				offset += 3;
 				len -= 3;
 			}
-			fragmentBuff.put(messageBytes, offset, len);
+			int limit = message.limit();
+			message.limit(message.position() + len);
+			fragmentBuff.put(message);
+			message.limit(limit);
 			offset += len;
 			fragmentBuff.putInt(0, fragmentBuff.position());
 
@@ -34,20 +34,24 @@ class TeamMessages implements IMessageSource {
 	public boolean nextMessage() throws IOException {
 		boolean ret = false;
 		team.reset("sent");
-		while (team.next()) {
-			Serialiser serialiser = new Serialiser();
-			Team record = team.read();
-			if (record.id == null) {
-				serialiser.putRawLong(record.epoc);
-				messageQueue.fragmentMessage(record.epoc, MessageQueue.DESTROY_TEAM, serialiser.getResult());
-			} else {
-				serialiser.putRawLong(record.epoc);
-				serialiser.putString(record.name);
-				int delay = app.getPrefs().getInt(App.MESSAGE_DELAY, 60000);
-				messageQueue.fragmentMessage(record.epoc + delay, MessageQueue.CREATE_TEAM, serialiser.getResult());
+		Serialiser serialiser = Serialiser.obtain();
+		try {
+			while (team.next()) {
+				Team record = team.read();
+				serialiser.clear();
+				if (record.id == null) {
+					serialiser.putRawLong(record.epoc);
+					messageQueue.fragmentMessage(record.epoc, MessageQueue.DESTROY_TEAM, serialiser.getResultBuffer());
+				} else {
+					serialiser.putRawLong(record.epoc);
+					serialiser.putString(record.name);
+					int delay = app.getPrefs().getInt(App.MESSAGE_DELAY, 60000);
+					messageQueue.fragmentMessage(record.epoc + delay, MessageQueue.CREATE_TEAM, serialiser.getResultBuffer());
+				}
+				ret = true;
 			}
-			Team.factory.serialise(serialiser, record);
-			ret = true;
+		}finally {
+			serialiser.recycle();
 		}
 		team.mark("sent");
 		return ret;
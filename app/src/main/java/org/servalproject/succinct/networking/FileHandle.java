@@ -0,0 +1,23 @@
+package org.servalproject.succinct.networking;
+
+import org.servalproject.succinct.storage.RecordStore;
+
+// A small integer id bound to a filename for the lifetime of a connection.
+// The first request for a file carries the name, later requests and data blocks only carry the id
+public class FileHandle {
+	public final int id;
+	public final String filename;
+	public final RecordStore file;
+	// has the binding been written to the connection yet?
+	boolean bound = false;
+
+	FileHandle(int id, String filename, RecordStore file){
+		this.id = id;
+		this.filename = filename;
+		this.file = file;
+	}
+
+	public boolean isBound(){
+		return bound;
+	}
+}
@@ -0,0 +1,78 @@
+package org.servalproject.succinct.networking;
+
+import org.servalproject.succinct.networking.messages.Message;
+
+import java.io.PrintWriter;
+
+// Cheap counters for diagnosing slow syncs in the field, see Networks.exportMetrics
+public class Metrics {
+
+	// bytes and messages in each direction, by message type
+	public static class MessageCounts {
+		private static final Message.Type[] types = Message.Type.values();
+		private final long[] bytesIn = new long[types.length];
+		private final long[] messagesIn = new long[types.length];
+		private final long[] bytesOut = new long[types.length];
+		private final long[] messagesOut = new long[types.length];
+
+		public synchronized void received(Message.Type type, int bytes){
+			bytesIn[type.ordinal()]+=bytes;
+			messagesIn[type.ordinal()]++;
+		}
+
+		// large messages may be written in more than one piece
+		public synchronized void sent(Message.Type type, int bytes, boolean complete){
+			bytesOut[type.ordinal()]+=bytes;
+			if (complete)
+				messagesOut[type.ordinal()]++;
+		}
+
+		synchronized void dump(PrintWriter out, String indent){
+			for (int i=0;i<types.length;i++){
+				if (messagesIn[i]==0 && bytesOut[i]==0)
+					continue;
+				out.println(indent+types[i]
+						+" in: "+messagesIn[i]+" / "+bytesIn[i]+"b"
+						+" out: "+messagesOut[i]+" / "+bytesOut[i]+"b");
+			}
+		}
+	}
+
+	// power of two buckets, so recording a value is a few instructions
+	public static class Histogram {
+		private final String name;
+		private final String unit;
+		private final long[] buckets = new long[64];
+		private long count;
+		private long sum;
+		private long max;
+
+		public Histogram(String name, String unit){
+			this.name = name;
+			this.unit = unit;
+		}
+
+		public synchronized void record(long value){
+			if (value<0)
+				value=0;
+			buckets[64 - Long.numberOfLeadingZeros(value)]++;
+			count++;
+			sum+=value;
+			if (value>max)
+				max=value;
+		}
+
+		synchronized void dump(PrintWriter out, String indent){
+			if (count==0)
+				return;
+			out.println(indent+name+" count: "+count+" mean: "+(sum/count)+unit+" max: "+max+unit);
+			StringBuilder sb = new StringBuilder();
+			for (int i=0;i<buckets.length;i++){
+				if (buckets[i]==0)
+					continue;
+				sb.append(" <").append(i == 0 ? 1 : 1L<<i).append(unit).append(':').append(buckets[i]);
+			}
+			out.println(indent+" "+sb);
+		}
+	}
+}
@@ -17,7 +17,10 @@ import org.servalproject.succinct.utils.ChangedObservable;
 import org.servalproject.succinct.utils.WakeAlarm;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
@@ -29,6 +32,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -63,6 +67,9 @@ public class Networks {
 	private boolean backgroundEnabled = true;
 
 	private int seq=0;
+	// when recent heartbeats were sent, to measure how long they take to be acked
+	private final int[] heartbeatSeq = new int[16];
+	private final long[] heartbeatTime = new long[16];
 
 	private static Networks instance;
 	public static Networks getInstance(){
@@ -180,6 +187,7 @@ public class Networks {
 		PeerSocketLink link = null;
 
 		while(buff.hasRemaining()){
+			int start = buff.position();
 			Message msg = Message.parseMessage(buff);
 			if (msg == null)
 				break;
@@ -207,11 +215,59 @@ public class Networks {
 						processStoreState(peer, (StoreState)msg);
 					break;
 			}
+			if (link != null)
+				link.messages.received(msg.type, buff.position() - start);
 			if (peer != null)
 				msg.process(peer);
 		}
 	}
 
+	long heartbeatSent(int seq){
+		int i = seq & (heartbeatSeq.length -1);
+		if (heartbeatSeq[i] != seq || heartbeatTime[i] == 0)
+			return -1;
+		return heartbeatTime[i];
+	}
+
+	// Write counters for every peer, to diagnose slow syncs.
+	// The counters are read on the networking thread, then written to the file in the background
+	public void exportMetrics(final File file){
+		nioLoop.post(new Runnable() {
+			@Override
+			public void run() {
+				StringWriter metrics = new StringWriter();
+				PrintWriter out = new PrintWriter(metrics);
+				out.println("Metrics for "+myId+" at "+new Date());
+				nioLoop.selectWait.dump(out, "");
+				nioLoop.dispatchTime.dump(out, "");
+				for (Peer p : peers.values())
+					p.dumpMetrics(out);
+				out.close();
+				writeMetrics(file, metrics.toString());
+			}
+		});
+	}
+
+	private static void writeMetrics(final File file, final String metrics){
+		App.backgroundHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					file.getParentFile().mkdirs();
+					FileWriter out = new FileWriter(file);
+					try {
+						out.write(metrics);
+					}finally {
+						out.close();
+					}
+					Log.v(TAG, "Exported metrics to " + file);
+				} catch (IOException e) {
+					Log.e(TAG, e.getMessage(), e);
+				}
+			}
+		});
+	}
+
 	public Collection<Team> getTeams(){
 		return knownTeams.values();
 	}
@@ -304,6 +360,15 @@ public class Networks {
 
 	private Set<SocketAddress> stunProbes = new HashSet<>();
 
+	// count the messages of a heartbeat packet sent to a link
+	private static void countSent(PeerSocketLink link, int hdrLen, int ackLen, int stateLen){
+		link.messages.sent(Message.Type.HeaderMessage, hdrLen, true);
+		if (ackLen > 0)
+			link.messages.sent(Message.Type.AckMessage, ackLen, true);
+		if (stateLen > 0)
+			link.messages.sent(Message.Type.StoreStateMessage, stateLen, true);
+	}
+
 	private Runnable onAlarm = new Runnable() {
 		@Override
 		public void run() {
@@ -322,6 +387,8 @@ public class Networks {
 				}
 
 				int seq = Networks.this.seq++;
+				heartbeatSeq[seq & (heartbeatSeq.length -1)] = seq & 0xFFFF;
+				heartbeatTime[seq & (heartbeatTime.length -1)] = SystemClock.elapsedRealtime();
 
 				Header hdr = new Header(myId, false, seq & 0xFFFF);
 				Header unicastHdr = new Header(myId, true, seq & 0xFFFF);
@@ -329,14 +396,17 @@ public class Networks {
 				// assemble a broadcast heartbeat packet
 				ByteBuffer buff = ByteBuffer.allocate(MTU);
 				hdr.write(buff);
+				int hdrLen = buff.position();
 
 				// TODO in a crowded network, all link acks might not fit in a single packet
 				Ack ack = new Ack();
+				List<PeerSocketLink> links = new ArrayList<>();
 				for(Peer p : peers.values()){
 					for(PeerLink l : p.networkLinks.values()){
 						if (l instanceof PeerSocketLink){
 							PeerSocketLink link = (PeerSocketLink)l;
 							ack.add(p, link);
+							links.add(link);
 							// don't send duplicate probes to peers we already know
 							stunProbes.remove(link.addr);
 						}
@@ -344,6 +414,7 @@ public class Networks {
 				}
 				if (!ack.links.isEmpty())
 					ack.write(buff);
+				int ackLen = buff.position() - hdrLen;
 
 				// TODO send a broadcast stun message too?
 
@@ -352,12 +423,18 @@ public class Networks {
 					state = appContext.teamStorage.getState();
 				if (state != null)
 					state.write(buff);
+				int stateLen = buff.position() - hdrLen - ackLen;
 
 				buff.flip();
 				for (IPInterface i : networks.values()) {
 					try {
 						//Log.v(TAG, "Heartbeat B "+i.broadcastAddress);
 						dgram.send(buff, new InetSocketAddress(i.broadcastAddress, PORT));
+						buff.rewind();
+						for (PeerSocketLink link : links) {
+							if (link.network == i)
+								countSent(link, hdrLen, ackLen, stateLen);
+						}
 					} catch (SecurityException | IOException se) {
 						Log.e(TAG, se.getMessage(), se);
 					}
@@ -371,16 +448,20 @@ public class Networks {
 
 					buff.clear();
 					unicastHdr.write(buff);
+					hdrLen = buff.position();
 					ack = new Ack();
 					ack.add(p, link);
 					ack.write(buff);
+					ackLen = buff.position() - hdrLen;
 					if (state != null)
 						state.write(buff);
+					stateLen = buff.position() - hdrLen - ackLen;
 					buff.flip();
 
 					try {
 						//Log.v(TAG, "Heartbeat U "+link.addr);
 						dgram.send(buff, link.addr);
+						countSent(link, hdrLen, ackLen, stateLen);
 					} catch (SecurityException | IOException se) {
 						Log.e(TAG, se.getMessage(), se);
 					}
@@ -12,6 +12,8 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class NioLoop implements Runnable{
 	private final PowerManager.WakeLock wakeLock;
@@ -20,6 +22,9 @@ public class NioLoop implements Runnable{
 	private Selector selector;
 	private static final String TAG = "NioLoop";
 	private Thread workingThread;
+	final Metrics.Histogram selectWait = new Metrics.Histogram("select wait", "ms");
+	final Metrics.Histogram dispatchTime = new Metrics.Histogram("dispatch", "us");
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
 
 	public NioLoop(Context context) throws IOException {
 		selector = Selector.open();
@@ -42,6 +47,12 @@ public class NioLoop implements Runnable{
 		return key;
 	}
 
+	// run something on the networking thread, to safely read state that only it modifies
+	public void post(Runnable task){
+		tasks.add(task);
+		wakeUp();
+	}
+
 	private final Runnable releaseLock = new Runnable() {
 		@Override
 		public void run() {
@@ -73,8 +84,11 @@ public class NioLoop implements Runnable{
 				busy = false;
 				App.backgroundHandler.removeCallbacks(releaseLock);
 				App.backgroundHandler.postDelayed(releaseLock,1);
+				long start = System.nanoTime();
 				selector.select();
 				acquire();
+				long selected = System.nanoTime();
+				selectWait.record((selected - start)/1000000);
 
 				Iterator<SelectionKey> i = selector.selectedKeys().iterator();
 				while(i.hasNext()){
@@ -95,6 +109,11 @@ public class NioLoop implements Runnable{
 						Log.e(TAG, e.getMessage(), e);
 					}
 				}
+				dispatchTime.record((System.nanoTime() - selected)/1000);
+
+				Runnable task;
+				while((task = tasks.poll()) != null)
+					task.run();
 			}
 		} catch (IOException e) {
 			Log.e(TAG, e.getMessage(), e);
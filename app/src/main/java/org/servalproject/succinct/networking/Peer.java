@@ -16,6 +16,8 @@ import org.servalproject.succinct.storage.RecordStore;
 import org.servalproject.succinct.utils.ChangedObservable;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ProtocolException;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -37,6 +39,10 @@ public class Peer {
 	private long transmitted;
 	private static final long maxRequest = 1024*256;
 	private List<PeerTransfer> possibleTransfers = new ArrayList<>();
+	private long syncStarted = -1;
+	public final Metrics.MessageCounts messages = new Metrics.MessageCounts();
+	public final Metrics.Histogram syncRounds = new Metrics.Histogram("sync round", "ms");
+	public final Metrics.Histogram queueDepth = new Metrics.Histogram("queue depth", "");
 
 	private static final String TAG = "Peer";
 	final Map<Object, PeerLink> networkLinks = new HashMap<>();
@@ -60,6 +66,15 @@ public class Peer {
 		if (!appContext.teamStorage.teamId.equals(state.teamId))
 			return;
 
+		// time from first noticing a difference until our stores match
+		boolean matches = state.equals(appContext.teamStorage.getState());
+		if (!matches && syncStarted == -1) {
+			syncStarted = SystemClock.elapsedRealtime();
+		}else if (matches && syncStarted != -1){
+			syncRounds.record(SystemClock.elapsedRealtime() - syncStarted);
+			syncStarted = -1;
+		}
+
 		if (storeState!=null && storeState.equals(state))
 			return;
 
@@ -116,7 +131,13 @@ public class Peer {
 			if (!linkAck.id.equals(myId))
 				continue;
 
-			link.lastAckTime = SystemClock.elapsedRealtime();
+			long now = SystemClock.elapsedRealtime();
+			if (linkAck.seq != link.lastAckSeq) {
+				long sent = appContext.networks.heartbeatSent(linkAck.seq);
+				if (sent != -1)
+					link.ackDelay.record(now - sent);
+			}
+			link.lastAckTime = now;
 			link.lastAckSeq = linkAck.seq;
 			if (linkAck.unicast)
 				link.ackUnicastCount++;
@@ -176,6 +197,7 @@ public class Peer {
 			RecordStore file = appContext.teamStorage.openFile(filename);
 			if (length <= file.EOF)
 				return;
+			file.addVersion(length, hash);
 			PeerTransfer active = file.activeTransfer;
 			if (active!=null && length <= active.newLength)
 				return;
@@ -199,12 +221,19 @@ public class Peer {
 				continue;
 			}
 
-			if (transfer.file.setTranfer(transfer)){
-				long length = transfer.newLength - EOF;
-				Log.v(TAG, "Requesting "+transfer.filename+" "+EOF+" +"+length);
-				connection.queue(new RequestBlock(transfer.filename, EOF, length));
-				requested+=length;
-				observable.notifyObservers();
+			try {
+				if (transfer.file.setTranfer(transfer)){
+					// resume after the last verified version, possibly received from another peer
+					long offset = transfer.file.getAppendOffset();
+					long length = transfer.newLength - offset;
+					Log.v(TAG, "Requesting "+transfer.filename+" "+offset+" +"+length);
+					FileHandle handle = connection.getRequestHandle(transfer.filename, transfer.file);
+					connection.queue(new RequestBlock(transfer.filename, handle, offset, length));
+					requested+=length;
+					observable.notifyObservers();
+				}
+			} catch (IOException e) {
+				Log.e(TAG, e.getMessage(), e);
 			}
 			i++;
 		}
@@ -220,7 +249,9 @@ public class Peer {
 
 	public void processRequest(RequestBlock request){
 		try {
-			RecordStore file = appContext.teamStorage.openFile(request.filename);
+			RecordStore file = request.file;
+			if (file == null)
+				file = appContext.teamStorage.openFile(request.filename);
 			String filename = request.filename;
 			long offset = request.offset;
 			long length = request.length;
@@ -237,7 +268,7 @@ public class Peer {
 
 			Log.v(TAG, "Sending "+filename+" "+offset+" +"+length);
 			transmitting+=length;
-			getConnection().queue(new FileBlock(filename, offset, length, file));
+			getConnection().queue(new FileBlock(filename, request.handle, offset, length, file));
 		} catch (IOException e) {
 			Log.v(TAG, e.getMessage(), e);
 		}
@@ -246,8 +277,14 @@ public class Peer {
 	public void processData(FileBlock fileBlock){
 		received+=fileBlock.length;
 		try{
-			RecordStore file = appContext.teamStorage.openFile(fileBlock.filename);
-			file.appendAt(fileBlock.offset, fileBlock.data);
+			if (fileBlock.file == null)
+				fileBlock.file = appContext.teamStorage.openFile(fileBlock.filename);
+			fileBlock.file.appendAt(fileBlock.offset, fileBlock.data);
+		} catch (ProtocolException e) {
+			// drop the transfer, data committed at a known version is kept
+			// and we'll resume from there when a peer next has this file
+			Log.e(TAG, e.getMessage(), e);
+			cancelTransfer(fileBlock.file);
 		} catch (IOException e) {
 			Log.v(TAG, e.getMessage(), e);
 		}
@@ -255,6 +292,20 @@ public class Peer {
 		nextTransfer();
 	}
 
+	private void cancelTransfer(RecordStore file){
+		if (file == null)
+			return;
+		Iterator<PeerTransfer> i = possibleTransfers.iterator();
+		while(i.hasNext()){
+			PeerTransfer transfer = i.next();
+			if (transfer.file != file)
+				continue;
+			i.remove();
+			file.cancel(transfer);
+		}
+		observable.notifyObservers();
+	}
+
 	public boolean isAlive(){
 		return connection!=null || !networkLinks.isEmpty();
 	}
@@ -289,6 +340,7 @@ public class Peer {
 		if (syncState!=0)
 			processSyncMessage(null);
 
+		// partially received files keep data up to the last verified version, the next transfer will resume from there
 		while(!possibleTransfers.isEmpty()){
 			PeerTransfer transfer = possibleTransfers.get(0);
 			possibleTransfers.remove(0);
@@ -324,6 +376,23 @@ public class Peer {
 		return link;
 	}
 
+	void dumpMetrics(PrintWriter out){
+		out.println("Peer "+id+(isAlive() ? "" : " DEAD"));
+		out.println("  requested: "+requested+" received: "+received
+				+" transmitting: "+transmitting+" transmitted: "+transmitted);
+		messages.dump(out, "  ");
+		syncRounds.dump(out, "  ");
+		queueDepth.dump(out, "  ");
+		for(PeerLink l:networkLinks.values()){
+			if (l instanceof PeerSocketLink){
+				PeerSocketLink link = (PeerSocketLink)l;
+				out.println("  Link "+link);
+				link.messages.dump(out, "    ");
+				link.ackDelay.dump(out, "    ");
+			}
+		}
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -3,15 +3,24 @@ package org.servalproject.succinct.networking;
 
 import android.util.Log;
 
+import org.servalproject.succinct.networking.messages.FileBlock;
 import org.servalproject.succinct.networking.messages.Header;
 import org.servalproject.succinct.networking.messages.Message;
+import org.servalproject.succinct.networking.messages.RequestBlock;
+import org.servalproject.succinct.storage.DeSerialiser;
+import org.servalproject.succinct.storage.RecordStore;
+import org.servalproject.succinct.storage.Storage;
 
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 
@@ -20,6 +29,16 @@ public class PeerConnection extends StreamHandler {
 	private Peer peer;
 	final boolean initiated;
 	boolean shutdown = false;
+	private DeSerialiser reader;
+	// set once the other end tells us it can parse large frames
+	private volatile boolean largeFrames = false;
+	// set once the other end tells us it understands file handles
+	private volatile boolean fileHandles = false;
+	// handles bound by our requests, indexed by id
+	private final List<FileHandle> requestHandles = new ArrayList<>();
+	private final Map<String, FileHandle> requestHandleNames = new HashMap<>();
+	// handles bound by requests from the other end
+	private final Map<Integer, FileHandle> remoteHandles = new HashMap<>();
 	private static final String TAG = "Connection";
 
 	private final Queue<Message> queue = new PriorityQueue<>(10, new Comparator<Message>() {
@@ -44,14 +63,38 @@ public class PeerConnection extends StreamHandler {
 		this.peer = peer;
 		if (peer!=null)
 			peer.setConnection(this);
-		queue.add(new Header(networks.myId, true));
+		queue.add(new Header(networks.myId, true, -1, true, true));
 		tryFill();
 	}
 
 	@Override
 	protected void emptyReadBuffer(ByteBuffer readBuffer) throws ProtocolException {
+		// commit all the file blocks in this buffer together
+		Storage storage = peer == null ? null : peer.appContext.teamStorage;
+		if (storage == null) {
+			readMessages(readBuffer);
+			return;
+		}
+		storage.beginBatch();
+		try {
+			readMessages(readBuffer);
+		} finally {
+			try {
+				storage.endBatch();
+			} catch (IOException e) {
+				// transfers completed by this read may have been discarded, start again with a new connection
+				Log.e(TAG, e.getMessage(), e);
+				close();
+			}
+		}
+	}
+
+	private void readMessages(ByteBuffer readBuffer) throws ProtocolException {
+		if (reader == null)
+			reader = new DeSerialiser(readBuffer);
 		while(true) {
-			Message msg = Message.parseMessage(readBuffer);
+			int start = readBuffer.position();
+			Message msg = Message.parseMessage(readBuffer, reader);
 			if (msg == null) {
 				if (readBuffer.position()==0 && readBuffer.limit() == readBuffer.capacity())
 					throw new IllegalStateException("Failed to empty read buffer");
@@ -60,17 +103,27 @@ public class PeerConnection extends StreamHandler {
 			}
 
 			if (msg instanceof Header){
+				Header hdr = (Header) msg;
+				if (hdr.largeFrames && !largeFrames) {
+					largeFrames = true;
+					tryFill();
+				}
+				if (hdr.fileHandles)
+					fileHandles = true;
 				if (peer == null) {
-					Header hdr = (Header) msg;
 					peer = networks.createPeer(hdr.id);
 					peer.setConnection(this);
 				}
+				if (peer != null)
+					peer.messages.received(msg.type, readBuffer.position() - start);
 				continue;
 			}
 
 			if (peer == null)
 				throw new ProtocolException("Expected header");
 
+			peer.messages.received(msg.type, readBuffer.position() - start);
+			resolveHandles(msg);
 			msg.process(peer);
 		}
 	}
@@ -82,14 +135,70 @@ public class PeerConnection extends StreamHandler {
 			Message msg = queue.peek();
 			if (msg == null)
 				break;
-			if (!msg.write(writeBuffer))
+			int start = writeBuffer.position();
+			boolean complete = msg.write(writeBuffer, largeFrames);
+			if (peer != null && writeBuffer.position() > start)
+				peer.messages.sent(msg.type, writeBuffer.position() - start, complete);
+			if (!complete)
 				break;
+			if (msg instanceof RequestBlock){
+				FileHandle handle = ((RequestBlock) msg).fileHandle;
+				if (handle != null)
+					handle.bound = true;
+			}
 			if (peer != null)
 				peer.wrote(msg);
 			queue.poll();
 		}
 	}
 
+	// Get or allocate a handle for requesting blocks of this file,
+	// or null if the other end doesn't support them
+	public synchronized FileHandle getRequestHandle(String filename, RecordStore file){
+		if (!fileHandles)
+			return null;
+		FileHandle handle = requestHandleNames.get(filename);
+		if (handle == null){
+			handle = new FileHandle(requestHandles.size(), filename, file);
+			requestHandles.add(handle);
+			requestHandleNames.put(filename, handle);
+		}
+		return handle;
+	}
+
+	// Map handle ids in received blocks back to their files
+	private synchronized void resolveHandles(Message msg) throws ProtocolException {
+		if (msg instanceof RequestBlock){
+			RequestBlock request = (RequestBlock) msg;
+			if (request.handle<0)
+				return;
+			FileHandle handle = remoteHandles.get(request.handle);
+			if (request.filename != null && (handle == null || !handle.filename.equals(request.filename))){
+				try {
+					RecordStore file = peer.appContext.teamStorage.openFile(request.filename);
+					handle = new FileHandle(request.handle, request.filename, file);
+					remoteHandles.put(request.handle, handle);
+				} catch (IOException e) {
+					Log.e(TAG, e.getMessage(), e);
+					return;
+				}
+			}
+			if (handle == null)
+				throw new ProtocolException("Unknown file handle "+request.handle);
+			request.filename = handle.filename;
+			request.file = handle.file;
+		}else if (msg instanceof FileBlock){
+			FileBlock block = (FileBlock) msg;
+			if (block.handle<0)
+				return;
+			if (block.handle >= requestHandles.size())
+				throw new ProtocolException("Unknown file handle "+block.handle);
+			FileHandle handle = requestHandles.get(block.handle);
+			block.filename = handle.filename;
+			block.file = handle.file;
+		}
+	}
+
 	@Override
 	public void write() throws IOException {
 		super.write();
@@ -103,6 +212,8 @@ public class PeerConnection extends StreamHandler {
 		if (shutdown)
 			throw new IllegalStateException();
 		queue.add(message);
+		if (peer != null)
+			peer.queueDepth.record(queue.size());
 		tryFill();
 	}
 
@@ -21,6 +21,8 @@ public class PeerSocketLink extends PeerLink {
 	public boolean ackedBroadcast=false;
 	public int unicastPackets=0;
 	public int broadcastPackets=0;
+	public final Metrics.MessageCounts messages = new Metrics.MessageCounts();
+	public final Metrics.Histogram ackDelay = new Metrics.Histogram("heartbeat ack delay", "ms");
 
 	PeerSocketLink(IPInterface network, SocketAddress addr){
 		this.network = network;
@@ -14,6 +14,8 @@ import java.nio.channels.SocketChannel;
 public abstract class StreamHandler extends NioHandler<SocketChannel> {
 	private final ByteBuffer readBuffer;
 	private final ByteBuffer writeBuffer;
+	// read as much as the socket has buffered in a single syscall
+	private static final int READ_BUFFER_SIZE = 2*Message.STREAM_MTU;
 	protected long lastRead =-1;
 	protected long lastWrite =-1;
 
@@ -21,8 +23,8 @@ public abstract class StreamHandler extends NioHandler<SocketChannel> {
 
 	protected StreamHandler(SocketChannel channel) {
 		super(channel);
-		readBuffer = ByteBuffer.allocate(Message.MTU);
-		writeBuffer = ByteBuffer.allocate(Message.MTU);
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		writeBuffer = ByteBuffer.allocate(Message.STREAM_MTU);
 		writeBuffer.flip();
 	}
 
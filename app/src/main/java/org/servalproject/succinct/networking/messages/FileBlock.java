@@ -12,25 +12,36 @@ import java.nio.ByteBuffer;
 
 public class FileBlock extends Message<FileBlock>{
 	public RecordStore file;
-	public final String filename;
+	// null when received with a file handle
+	public String filename;
+	// per-connection file handle id, or -1
+	public final int handle;
 	public long offset;
 	public long length;
 	public long wrote;
-	public final byte[] data;
+	// when parsed from the network, a slice of the connection's read buffer
+	// only valid until process() returns
+	public final ByteBuffer data;
 	private static final String TAG = "FileBlock";
 
 	public FileBlock(String filename, long offset, long length, RecordStore file) {
+		this(filename, -1, offset, length, file);
+	}
+
+	public FileBlock(String filename, int handle, long offset, long length, RecordStore file) {
 		super(Type.FileBlockMessage);
 		this.filename = filename;
+		this.handle = handle;
 		this.offset = offset;
 		this.length = length;
 		this.data = null;
 		this.file = file;
 	}
 
-	public FileBlock(String filename, long offset, long length, byte[] data) {
+	private FileBlock(String filename, int handle, long offset, long length, ByteBuffer data) {
 		super(Type.FileBlockMessage);
 		this.filename = filename;
+		this.handle = handle;
 		this.offset = offset;
 		this.length = length;
 		this.data = data;
@@ -46,14 +57,25 @@ public class FileBlock extends Message<FileBlock>{
 		@Override
 		public FileBlock create(DeSerialiser serialiser) {
 			String filename = serialiser.getString();
+			int handle = -1;
+			if (filename.isEmpty()){
+				handle = (int) serialiser.getLong();
+				filename = null;
+			}
 			long offset = serialiser.getLong();
-			byte[] data = serialiser.getFixedBytes(DeSerialiser.REMAINING);
-			return new FileBlock(filename, offset, data.length, data);
+			ByteBuffer data = serialiser.getSlice(DeSerialiser.REMAINING);
+			return new FileBlock(filename, handle, offset, data.remaining(), data);
 		}
 
 		@Override
 		public void serialise(Serialiser serialiser, FileBlock object) {
-			serialiser.putString(object.filename);
+			if (object.handle>=0){
+				// an empty filename marks a handle
+				serialiser.putByte((byte) 0);
+				serialiser.putLong(object.handle);
+			}else{
+				serialiser.putString(object.filename);
+			}
 			serialiser.putLong(object.offset + object.wrote);
 			int len = serialiser.remaining();
 			if (len > object.length - object.wrote)
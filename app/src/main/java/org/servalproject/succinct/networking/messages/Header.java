@@ -12,16 +12,30 @@ public class Header extends Message<Header>{
 	public final PeerId id;
 	public final boolean unicast;
 	public final int seq;
+	// sender can parse large, varint length frames on this connection
+	public final boolean largeFrames;
+	// sender understands per-connection file handles in block requests
+	public final boolean fileHandles;
+
+	private static final int FLAG_UNICAST = 1;
+	private static final int FLAG_LARGE_FRAMES = 2;
+	private static final int FLAG_FILE_HANDLES = 4;
 
 	public Header(PeerId id, boolean unicast){
 		this(id, unicast, -1);
 	}
 
 	public Header(PeerId id, boolean unicast, int seq){
+		this(id, unicast, seq, false, false);
+	}
+
+	public Header(PeerId id, boolean unicast, int seq, boolean largeFrames, boolean fileHandles){
 		super(Type.HeaderMessage);
 		this.id = id;
 		this.unicast = unicast;
 		this.seq = seq;
+		this.largeFrames = largeFrames;
+		this.fileHandles = fileHandles;
 	}
 
 	public static final Factory<Header> factory = new Factory<Header>() {
@@ -37,13 +51,24 @@ public class Header extends Message<Header>{
 			int seq = -1;
 			if (serialiser.hasRemaining())
 				seq = serialiser.getShort() & 0xFFFF;
-			return new Header(id, (flags&1)>0, seq);
+			return new Header(id,
+					(flags & FLAG_UNICAST)>0,
+					seq,
+					(flags & FLAG_LARGE_FRAMES)>0,
+					(flags & FLAG_FILE_HANDLES)>0);
 		}
 
 		@Override
 		public void serialise(Serialiser serialiser, Header object) {
 			object.id.serialise(serialiser);
-			serialiser.putByte((byte) (object.unicast? 1 : 0));
+			int flags = 0;
+			if (object.unicast)
+				flags |= FLAG_UNICAST;
+			if (object.largeFrames)
+				flags |= FLAG_LARGE_FRAMES;
+			if (object.fileHandles)
+				flags |= FLAG_FILE_HANDLES;
+			serialiser.putByte((byte) flags);
 			if (object.seq>=0)
 				serialiser.putShort((short) object.seq);
 		}
@@ -15,6 +15,11 @@ import java.nio.ByteBuffer;
 public abstract class Message<T extends Message<T>> {
 	public final Type type;
 	public static final int MTU = 1200;
+	// Maximum frame size on a TCP connection, once both ends have agreed to use large frames
+	public static final int STREAM_MTU = 64*1024;
+	// High bit of the type byte marks a frame with a varint length
+	private static final int LARGE_FRAME = 0x80;
+	private static final int LENGTH_BYTES = 3;
 	private static final String TAG = "Message";
 
 	@Override
@@ -43,28 +48,40 @@ public abstract class Message<T extends Message<T>> {
 	private static Type[] types = Type.values();
 
 	public static Message parseMessage(ByteBuffer buff){
-		if (buff.remaining()<3)
+		return parseMessage(buff, new DeSerialiser(buff));
+	}
+
+	// parse using a DeSerialiser that wraps buff, so stream readers can reuse a single instance
+	public static Message parseMessage(ByteBuffer buff, DeSerialiser serialiser){
+		if (buff.remaining()<2)
 			return null;
 		int limit = buff.limit();
 		buff.mark();
 
-		int t = buff.get();
+		int t = buff.get() & 0xFF;
+		boolean largeFrame = (t & LARGE_FRAME)!=0;
+		t &= ~LARGE_FRAME;
 		if (t >= types.length) {
 			Log.v(TAG, "Unexpected type " + t + " vs "+types.length);
 			return null;
 		}
 		Type type = types[t];
 
-		short len = buff.getShort();
-		if (len > buff.remaining()) {
+		int len;
+		if (largeFrame){
+			len = getLength(buff);
+		}else if (buff.remaining()<2){
+			len = -1;
+		}else{
+			len = buff.getShort();
+		}
+		if (len < 0 || len > buff.remaining()) {
 			buff.reset();
 			return null;
 		}
 
 		buff.limit(buff.position()+len);
 		try {
-			DeSerialiser serialiser = new DeSerialiser(buff);
-
 			switch (type) {
 				case HeaderMessage:
 					return Header.factory.create(serialiser);
@@ -94,25 +111,64 @@ public abstract class Message<T extends Message<T>> {
 		}
 	}
 
+	// Read a varint frame length, or -1 if the buffer ends first
+	private static int getLength(ByteBuffer buff){
+		int ret=0;
+		int shift=0;
+		while(buff.hasRemaining()){
+			int val = buff.get() & 0xFF;
+			ret |= (val & 0x7f)<<shift;
+			if ((val & 0x80) == 0)
+				return ret;
+			shift+=7;
+		}
+		return -1;
+	}
+
+	// Write a varint length, padded to exactly LENGTH_BYTES so it can be filled in after the body
+	private static void putLength(ByteBuffer buff, int offset, int len){
+		for (int i=0;i<LENGTH_BYTES;i++){
+			byte b = (byte) ((len >>> (7*i)) & 0x7f);
+			if (i < LENGTH_BYTES -1)
+				b |= 0x80;
+			buff.put(offset+i, b);
+		}
+	}
+
+	// Compact framing (type + short length), used in datagrams and for peers that don't support large frames
 	public boolean write(ByteBuffer buff){
-		if (buff.remaining()<3)
+		return write(buff, false);
+	}
+
+	public boolean write(ByteBuffer buff, boolean largeFrame){
+		int lenBytes = largeFrame ? LENGTH_BYTES : 2;
+		if (buff.remaining()<1+lenBytes)
 			return false;
+		int limit = buff.limit();
+		int maxFrame = largeFrame ? STREAM_MTU : MTU;
+		if (buff.remaining() > maxFrame)
+			buff.limit(buff.position()+maxFrame);
 		buff.mark();
 		try {
-			buff.put((byte) type.ordinal());
+			buff.put((byte) (type.ordinal() | (largeFrame ? LARGE_FRAME : 0)));
 			int lenOffset = buff.position();
-			buff.putShort((short) 0);
+			buff.position(lenOffset + lenBytes);
 
 			Serialiser serialiser = new Serialiser(buff);
 			Factory<T> factory = getFactory();
 			factory.serialise(serialiser, (T)this);
 
-			int len = buff.position() - lenOffset - 2;
-			buff.putShort(lenOffset, (short) len);
+			int len = buff.position() - lenOffset - lenBytes;
+			if (largeFrame)
+				putLength(buff, lenOffset, len);
+			else
+				buff.putShort(lenOffset, (short) len);
 			return isComplete();
 		} catch (BufferOverflowException e){
 			buff.reset();
 			return false;
+		} finally {
+			buff.limit(limit);
 		}
 	}
 
@@ -1,21 +1,40 @@
 package org.servalproject.succinct.networking.messages;
 
+import org.servalproject.succinct.networking.FileHandle;
 import org.servalproject.succinct.networking.Peer;
 import org.servalproject.succinct.storage.DeSerialiser;
 import org.servalproject.succinct.storage.Factory;
+import org.servalproject.succinct.storage.RecordStore;
 import org.servalproject.succinct.storage.Serialiser;
 
 import java.nio.ByteBuffer;
 
 public class RequestBlock extends Message<RequestBlock> {
 	private static final int HASH_LEN=8;
-	public final String filename;
+	// null when received with a handle that was bound by an earlier request
+	public String filename;
 	public final long offset;
 	public final long length;
+	// per-connection file handle id, or -1
+	public final int handle;
+	// the binding we are sending, if any
+	public final FileHandle fileHandle;
+	// resolved by the connection when received with a handle
+	public RecordStore file;
 
 	public RequestBlock(String filename, long offset, long length) {
+		this(filename, null, offset, length);
+	}
+
+	public RequestBlock(String filename, FileHandle fileHandle, long offset, long length) {
+		this(filename, fileHandle == null ? -1 : fileHandle.id, fileHandle, offset, length);
+	}
+
+	private RequestBlock(String filename, int handle, FileHandle fileHandle, long offset, long length) {
 		super(Type.RequestBlockMessage);
 		this.filename = filename;
+		this.handle = handle;
+		this.fileHandle = fileHandle;
 		this.offset = offset;
 		this.length = length;
 	}
@@ -30,15 +49,33 @@ public class RequestBlock extends Message<RequestBlock> {
 		public RequestBlock create(DeSerialiser serialiser) {
 			long offset = serialiser.getLong();
 			long length = serialiser.getLong();
-			String filename = new String(serialiser.getFixedBytes(DeSerialiser.REMAINING));
-			return new RequestBlock(filename, offset, length);
+			byte[] trailer = serialiser.getFixedBytes(DeSerialiser.REMAINING);
+			if (trailer.length>0 && trailer[0]==0){
+				// [0, handle, optional filename]
+				DeSerialiser handleSerialiser = new DeSerialiser(trailer);
+				handleSerialiser.getByte();
+				int handle = (int) handleSerialiser.getLong();
+				String filename = null;
+				if (handleSerialiser.hasRemaining())
+					filename = new String(handleSerialiser.getFixedBytes(DeSerialiser.REMAINING));
+				return new RequestBlock(filename, handle, null, offset, length);
+			}
+			return new RequestBlock(new String(trailer), offset, length);
 		}
 
 		@Override
 		public void serialise(Serialiser serialiser, RequestBlock object) {
 			serialiser.putLong(object.offset);
 			serialiser.putLong(object.length);
-			serialiser.putFixedBytes(object.filename.getBytes());
+			if (object.fileHandle == null){
+				serialiser.putFixedBytes(object.filename.getBytes());
+				return;
+			}
+			// filenames never start with a NULL, so it marks a handle
+			serialiser.putByte((byte) 0);
+			serialiser.putLong(object.fileHandle.id);
+			if (!object.fileHandle.isBound())
+				serialiser.putFixedBytes(object.filename.getBytes());
 		}
 	};
 
@@ -2,6 +2,7 @@ package org.servalproject.succinct.storage;
 
 import org.servalproject.succinct.networking.Hex;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -28,7 +29,15 @@ public class DeSerialiser {
 		int i;
 		for (i = buff.position(); i<buff.limit() && buff.get(i)!=0;i++)
 			;
-		String ret = new String(getFixedBytes(i - buff.position()));
+		int len = i - buff.position();
+		String ret;
+		if (buff.hasArray()) {
+			// decode in place, without copying the bytes first
+			ret = new String(buff.array(), buff.arrayOffset() + buff.position(), len, Serialiser.UTF_8);
+			buff.position(i);
+		}else{
+			ret = new String(getFixedBytes(len), Serialiser.UTF_8);
+		}
 		if (i<buff.limit())
 			buff.get();
 		return ret;
@@ -59,6 +68,25 @@ public class DeSerialiser {
 		buff.get(bytes);
 	}
 
+	// return a view of the next length bytes, without copying them
+	// only valid for as long as the underlying buffer is left untouched
+	public ByteBuffer getSlice(int length){
+		if (length==REMAINING)
+			length = remaining();
+		if (length > remaining())
+			throw new BufferUnderflowException();
+		int l = buff.limit();
+		buff.limit(buff.position()+length);
+		ByteBuffer ret = buff.slice();
+		buff.limit(l);
+		buff.position(buff.position()+length);
+		return ret;
+	}
+
+	public void skip(int length){
+		buff.position(buff.position()+length);
+	}
+
 	public byte[] getBytes(){
 		int length = (int)getLong();
 		return getFixedBytes(length);
@@ -82,7 +110,7 @@ public class DeSerialiser {
 		int shift=0;
 		while(true){
 			int val = buff.get() & 0xFF;
-			ret |= (val & 0x7f)<<shift;
+			ret |= ((long)(val & 0x7f))<<shift;
 			if ((val & 0x80) == 0)
 				break;
 			shift+=7;
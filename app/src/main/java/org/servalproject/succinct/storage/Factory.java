@@ -11,10 +11,39 @@ public abstract class Factory<T> {
 	public abstract T create(DeSerialiser serialiser);
 
 	public byte[] serialise(T object){
-		Serialiser serialiser = new Serialiser();
-		serialise(serialiser, object);
-		return serialiser.getResult();
+		Serialiser serialiser = Serialiser.obtain();
+		try {
+			serialise(serialiser, object);
+			return serialiser.getResult();
+		}finally {
+			serialiser.recycle();
+		}
 	}
 
 	public abstract void serialise(Serialiser serialiser, T object);
+
+	// Decodes a single value from a serialised record, without creating the whole object.
+	// The record's buffer may be reused once get returns.
+	public interface Field<T, V>{
+		V get(DeSerialiser serialiser);
+	}
+
+	// Factories may encode records relative to the previous record in the same file.
+	// RecordIterator will pass previous == null when a record must be readable on its own.
+	public boolean isDeltaEncoded(){
+		return false;
+	}
+
+	// does this record need the previous record to be decoded?
+	public boolean isDelta(byte[] bytes){
+		return false;
+	}
+
+	public T create(byte[] bytes, T previous){
+		return create(bytes);
+	}
+
+	public byte[] serialise(T object, T previous){
+		return serialise(object);
+	}
 }
@@ -0,0 +1,251 @@
+package org.servalproject.succinct.storage;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * The marks and properties of a RecordStore, saved as a journal of changes.
+ *
+ * Each change is appended as a single small write with a checksum, so a torn write is ignored when loading.
+ * Once the file is mostly superseded entries, the current values are written to a new file,
+ * which atomically replaces the journal.
+ *
+ * ([length][type][name][value][crc32])...
+ */
+class MarkJournal {
+	private static final String TAG = "MarkJournal";
+	private static final byte MARK = 0;
+	private static final byte PROPERTY = 1;
+	private static final byte REMOVE = 2;
+	// don't bother compacting a journal smaller than this
+	private static final int COMPACT_SIZE = 4096;
+
+	private final File file;
+	// marks and properties share names, values are a Long or String
+	private final Map<String, Object> values = new HashMap<>();
+	private RandomAccessFile journal;
+	private long length;
+	// bytes needed to write the current values
+	private long liveLength;
+
+	MarkJournal(File file){
+		this.file = file;
+	}
+
+	synchronized void load() throws IOException {
+		if (!file.exists())
+			return;
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while(read < bytes.length){
+				int r = in.read(bytes, read, bytes.length - read);
+				if (r < 0)
+					break;
+				read += r;
+			}
+		}finally {
+			in.close();
+		}
+
+		// replay changes, stopping at the first damaged entry
+		ByteBuffer buff = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		int valid = 0;
+		while(buff.remaining() >= 2){
+			int len = buff.getShort(valid) & 0xFFFF;
+			if (len == 0 || valid + 2 + len + 4 > bytes.length)
+				break;
+			crc.reset();
+			crc.update(bytes, valid + 2, len);
+			if (buff.getInt(valid + 2 + len) != (int) crc.getValue())
+				break;
+			buff.limit(valid + 2 + len);
+			buff.position(valid + 2);
+			apply(new DeSerialiser(buff.slice()));
+			buff.limit(bytes.length);
+			valid += 2 + len + 4;
+			buff.position(valid);
+		}
+		length = valid;
+		if (valid < bytes.length){
+			Log.v(TAG, "Discarding "+(bytes.length - valid)+" damaged bytes from "+file);
+			getJournal().setLength(valid);
+		}
+	}
+
+	// values from the Properties file we used to write
+	synchronized void importProperties(File markFile) throws IOException {
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(markFile);
+		try {
+			properties.load(in);
+		}finally {
+			in.close();
+		}
+		for(String name : properties.stringPropertyNames())
+			values.put(name, properties.getProperty(name));
+		compact();
+	}
+
+	private void apply(DeSerialiser entry){
+		byte type = entry.getByte();
+		String name = entry.getString();
+		Object value;
+		switch (type){
+			case MARK:
+				value = entry.getLong();
+				break;
+			case PROPERTY:
+				value = entry.getString();
+				break;
+			default:
+				value = null;
+		}
+		Object old = value == null ? values.remove(name) : values.put(name, value);
+		if (old != null)
+			liveLength -= entrySize(name, old);
+		if (value != null)
+			liveLength += entrySize(name, value);
+	}
+
+	synchronized long getMark(String name){
+		Object value = values.get(name);
+		if (value == null)
+			return 0;
+		if (value instanceof Long)
+			return (Long) value;
+		return Long.parseLong((String) value, 10);
+	}
+
+	synchronized String getProperty(String name){
+		Object value = values.get(name);
+		return value == null ? null : value.toString();
+	}
+
+	synchronized void setMark(String name, long offset) throws IOException {
+		// Noop
+		if (values.containsKey(name) ? getMark(name) == offset : offset == 0)
+			return;
+		put(name, offset == 0 ? null : offset);
+	}
+
+	synchronized void putProperty(String name, String value) throws IOException {
+		Object old = values.get(name);
+		if (value == null ? old == null : old != null && value.equals(old.toString()))
+			return;
+		put(name, value);
+	}
+
+	private void put(String name, Object value) throws IOException {
+		byte[] entry = entry(name, value);
+		RandomAccessFile journal = getJournal();
+		journal.seek(length);
+		journal.write(entry);
+		length += entry.length;
+
+		Object old = value == null ? values.remove(name) : values.put(name, value);
+		if (old != null)
+			liveLength -= entrySize(name, old);
+		if (value != null)
+			liveLength += entrySize(name, value);
+
+		if (length > COMPACT_SIZE && length > liveLength * 4)
+			compact();
+	}
+
+	// write the current values to a new file, then rename it over the journal
+	private void compact() throws IOException {
+		close();
+		if (values.isEmpty()){
+			file.delete();
+			length = 0;
+			return;
+		}
+		File temp = new File(file.getParentFile(), file.getName()+".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		long written = 0;
+		liveLength = 0;
+		try {
+			for (Map.Entry<String, Object> e : values.entrySet()) {
+				byte[] entry = entry(e.getKey(), e.getValue());
+				out.write(entry);
+				written += entry.length;
+				liveLength += entrySize(e.getKey(), e.getValue());
+			}
+			out.getFD().sync();
+		}finally {
+			out.close();
+		}
+		if (!temp.renameTo(file))
+			throw new IOException("Failed to replace "+file);
+		length = written;
+	}
+
+	private static int entrySize(String name, Object value){
+		int size = 2 + 1 + name.length() + 1 + 4;
+		return size + (value instanceof Long ? 5 : ((String) value).length() + 1);
+	}
+
+	private static byte[] entry(String name, Object value){
+		int size = 2 + 1 + (name.length() + 1) * 3 + 10 + 4
+				+ (value instanceof String ? (((String) value).length() + 1) * 3 : 0);
+		if (size > 0xFFFF)
+			throw new IllegalStateException("Property "+name+" is too large");
+		ByteBuffer buff = ByteBuffer.allocate(size);
+		buff.position(2);
+		Serialiser serialiser = new Serialiser(buff);
+		if (value == null){
+			serialiser.putByte(REMOVE);
+			serialiser.putString(name);
+		}else if (value instanceof Long){
+			serialiser.putByte(MARK);
+			serialiser.putString(name);
+			serialiser.putLong((Long) value);
+		}else{
+			serialiser.putByte(PROPERTY);
+			serialiser.putString(name);
+			serialiser.putString((String) value);
+		}
+		int len = buff.position() - 2;
+		buff.putShort(0, (short) len);
+		CRC32 crc = new CRC32();
+		crc.update(buff.array(), 2, len);
+		buff.putInt((int) crc.getValue());
+		byte[] ret = new byte[buff.position()];
+		System.arraycopy(buff.array(), 0, ret, 0, ret.length);
+		return ret;
+	}
+
+	private RandomAccessFile getJournal() throws IOException {
+		if (journal == null)
+			journal = new RandomAccessFile(file, "rw");
+		return journal;
+	}
+
+	synchronized void close() throws IOException {
+		if (journal != null){
+			journal.close();
+			journal = null;
+		}
+	}
+
+	// forget everything, the file has been emptied
+	synchronized void delete() throws IOException {
+		close();
+		values.clear();
+		length = liveLength = 0;
+		file.delete();
+	}
+}
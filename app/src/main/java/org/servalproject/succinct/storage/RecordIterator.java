@@ -1,6 +1,10 @@
 package org.servalproject.succinct.storage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class RecordIterator<T> {
 	private final Factory<T> factory;
@@ -36,11 +40,16 @@ public class RecordIterator<T> {
 	public long reset(String markName) throws IOException {
 		// slightly quirky if you mark between records
 		long offset = store.getMark(markName);
+		seek(offset);
+		return offset;
+	}
+
+	// offset must be the start of a record, or EOF
+	public void seek(long offset){
 		if (offset<0 || offset >store.EOF)
 			throw new IllegalStateException();
 		this.offset = offset;
 		this.recordLength = 0;
-		return offset;
 	}
 
 	public boolean next() throws IOException {
@@ -64,17 +73,275 @@ public class RecordIterator<T> {
 	}
 
 	private long currentOffset = 0;
+	private int currentLength = 0;
 	private T current = null;
 	public T read() throws IOException {
 		if (recordLength==0)
 			return null;
 		if (currentOffset == offset && current!=null)
 			return current;
+		long start = offset;
+		int length = recordLength;
+		byte[] bytes = readRecord();
+		T ret;
+		if (!factory.isDelta(bytes)) {
+			ret = factory.create(bytes);
+		}else{
+			// walk back to the last record we decoded, or one that can be decoded on its own
+			ArrayList<byte[]> chain = new ArrayList<>();
+			chain.add(bytes);
+			T previous = null;
+			while(true){
+				if (current!=null && currentOffset + currentLength == offset){
+					previous = current;
+					break;
+				}
+				if (!prev())
+					break;
+				byte[] prevBytes = readRecord();
+				if (!factory.isDelta(prevBytes)){
+					previous = factory.create(prevBytes);
+					break;
+				}
+				chain.add(prevBytes);
+			}
+			for (int i=chain.size()-1;i>=0;i--)
+				previous = factory.create(chain.get(i), previous);
+			ret = previous;
+			offset = start;
+			recordLength = length;
+		}
+		current = ret;
+		currentOffset = start;
+		currentLength = length;
+		return current;
+	}
+
+	private byte[] readRecord() throws IOException {
 		byte[] bytes = new byte[recordLength - 8];
 		store.readBytes(offset+4, bytes);
-		current = factory.create(bytes);
+		return bytes;
+	}
+
+	// reused for partial reads and scans
+	private ByteBuffer buffer;
+
+	private ByteBuffer getBuffer(int length){
+		if (buffer == null || buffer.capacity() < length)
+			buffer = ByteBuffer.allocate(Math.max(length, 256));
+		buffer.clear();
+		return buffer;
+	}
+
+	// Read one value from the current record, without creating the whole object.
+	// Delta encoded records can't be decoded on their own, so aren't supported.
+	public <V> V read(Factory.Field<T, V> field) throws IOException {
+		if (recordLength==0)
+			return null;
+		if (factory.isDeltaEncoded())
+			throw new IllegalStateException("Can't read fields of delta encoded records");
+		ByteBuffer buff = getBuffer(recordLength - 8);
+		buff.limit(recordLength - 8);
+		store.readBytes(offset+4, buff);
+		buff.flip();
+		return field.get(new DeSerialiser(buff));
+	}
+
+	public interface RecordVisitor {
+		// return false to stop scanning
+		boolean visit(long offset, DeSerialiser record) throws IOException;
+	}
+
+	// What a RecordFilter can see of a record, without decoding it
+	public static class RecordHeader {
+		private long offset;
+		private ByteBuffer record;
+
+		public long getOffset(){
+			return offset;
+		}
+
+		// length of the serialised record, without framing
+		public int getLength(){
+			return record.remaining();
+		}
+
+		public byte getByte(int index){
+			return record.get(record.position() + index);
+		}
+
+		public int getInt(int index){
+			return record.getInt(record.position() + index);
+		}
+	}
+
+	public interface RecordFilter {
+		boolean accept(RecordHeader header);
+	}
+
+	// read the file in blocks of this size while scanning
+	private static final int SCAN_BLOCK = 64*1024;
+
+	public void scan(RecordVisitor visitor) throws IOException {
+		scan(store.EOF, visitor);
+	}
+
+	// Visit each record that next() would return, up to endOffset, reading many records into one buffer at a time.
+	// Leaves this iterator on the last record visited, as if next() had been called.
+	public void scan(long endOffset, final RecordVisitor visitor) throws IOException {
+		if (factory.isDeltaEncoded())
+			throw new IllegalStateException("Can't scan delta encoded records");
+		walk(true, endOffset, new BlockVisitor() {
+			@Override
+			public boolean visit(long offset, ByteBuffer record) throws IOException {
+				return visitor.visit(offset, new DeSerialiser(record));
+			}
+		});
+	}
+
+	public List<T> scan(String markName, boolean forwards, int limit, RecordFilter filter) throws IOException {
+		reset(markName);
+		return scan(forwards, limit, filter);
+	}
+
+	// Find up to limit records that match filter, after (or before) the current record.
+	// Only matching records are decoded, a null filter matches everything.
+	// Leaves this iterator on the last record examined, so the next call continues from there.
+	public List<T> scan(boolean forwards, final int limit, final RecordFilter filter) throws IOException {
+		final List<T> ret = new ArrayList<>();
+		if (limit <= 0)
+			return ret;
+		final RecordHeader header = new RecordHeader();
+		walk(forwards, store.EOF, new BlockVisitor() {
+			@Override
+			public boolean visit(long offset, ByteBuffer record) throws IOException {
+				header.offset = offset;
+				header.record = record;
+				if (filter == null || filter.accept(header))
+					ret.add(decode(record));
+				return ret.size() < limit;
+			}
+		});
+		return ret;
+	}
+
+	// Move over up to count records without reading them, returns the number of records passed
+	public int skip(boolean forwards, final int count) throws IOException {
+		final int[] skipped = {0};
+		if (count > 0) {
+			walk(forwards, store.EOF, new BlockVisitor() {
+				@Override
+				public boolean visit(long offset, ByteBuffer record) {
+					return ++skipped[0] < count;
+				}
+			});
+		}
+		return skipped[0];
+	}
+
+	// decode the current record from a scanned block
+	private T decode(ByteBuffer record) throws IOException {
+		if (currentOffset == offset && current!=null)
+			return current;
+		T ret;
+		if (!factory.isDeltaEncoded()) {
+			ret = factory.create(new DeSerialiser(record));
+		}else{
+			byte[] bytes = new byte[record.remaining()];
+			record.get(bytes);
+			if (!factory.isDelta(bytes))
+				ret = factory.create(bytes);
+			else if (current!=null && currentOffset + currentLength == offset)
+				ret = factory.create(bytes, current);
+			else
+				// walk back through the file
+				return read();
+		}
+		current = ret;
 		currentOffset = offset;
-		return current;
+		currentLength = recordLength;
+		return ret;
+	}
+
+	private interface BlockVisitor {
+		boolean visit(long offset, ByteBuffer record) throws IOException;
+	}
+
+	// Move through the file in large blocks, positioning this iterator on each record in turn
+	private void walk(boolean forwards, long endOffset, BlockVisitor visitor) throws IOException {
+		long eof = store.EOF;
+		if (endOffset > eof)
+			endOffset = eof;
+		long blockStart = 0;
+		int blockLength = 0;
+		ByteBuffer block = null;
+
+		if (forwards) {
+			long pos = offset + recordLength;
+			while (pos + 8 <= endOffset) {
+				if (block == null || pos + 4 > blockStart + blockLength) {
+					block = readBlock(pos, SCAN_BLOCK, eof);
+					blockStart = pos;
+					blockLength = block.limit();
+				}
+				int length = block.getInt((int) (pos - blockStart));
+				if (length < 8 || pos + length > endOffset)
+					break;
+				if (pos + length > blockStart + blockLength) {
+					block = readBlock(pos, Math.max(SCAN_BLOCK, length), eof);
+					blockStart = pos;
+					blockLength = block.limit();
+				}
+				offset = pos;
+				recordLength = length;
+				if (!visitor.visit(pos, slice(block, pos - blockStart, length)))
+					return;
+				pos += length;
+			}
+		}else{
+			// pos is the end of the record before this one
+			long pos = Math.min(offset, endOffset);
+			while (pos >= 8) {
+				if (block == null || pos - 4 < blockStart || pos > blockStart + blockLength) {
+					long start = Math.max(0, pos - SCAN_BLOCK);
+					block = readBlock(start, (int) (pos - start), eof);
+					blockStart = start;
+					blockLength = block.limit();
+				}
+				int length = block.getInt((int) (pos - 4 - blockStart));
+				long start = pos - length;
+				if (length < 8 || start < 0)
+					break;
+				if (start < blockStart) {
+					block = readBlock(start, length, eof);
+					blockStart = start;
+					blockLength = block.limit();
+				}
+				offset = start;
+				recordLength = length;
+				if (!visitor.visit(start, slice(block, start - blockStart, length)))
+					return;
+				pos = start;
+			}
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer block, long position, int length){
+		ByteBuffer record = block.duplicate();
+		record.limit((int) position + length - 4);
+		record.position((int) position + 4);
+		return record.slice();
+	}
+
+	private ByteBuffer readBlock(long pos, int length, long eof) throws IOException {
+		ByteBuffer block = getBuffer(length);
+		block.limit((int) Math.min(length, eof - pos));
+		while(block.hasRemaining()){
+			if (store.readBytes(pos + block.position(), block) <= 0)
+				break;
+		}
+		block.flip();
+		return block;
 	}
 
 	public T readLast() throws IOException {
@@ -87,8 +354,41 @@ public class RecordIterator<T> {
 	}
 
 	public void append(T object) throws IOException {
-		byte[] bytes = factory.serialise(object);
-		store.appendRecord(bytes);
+		append(Collections.singletonList(object));
+	}
+
+	// delta encoded files include a record that can be read on its own in every block of this size,
+	// bounding how far read() must walk back
+	private static final int KEYFRAME_INTERVAL = 512;
+
+	public void append(List<T> objects) throws IOException {
+		List<byte[]> records = new ArrayList<>(objects.size());
+		if (!factory.isDeltaEncoded()){
+			for(T object:objects)
+				records.add(factory.serialise(object));
+			store.appendRecords(records);
+			return;
+		}
+		synchronized (store){
+			long eof = store.getAppendOffset();
+			long previousOffset = -1;
+			T previous = null;
+			if (eof > 0){
+				RecordIterator<T> last = new RecordIterator<>(store, factory);
+				previous = last.readLast();
+				previousOffset = last.getOffset();
+			}
+			for(T object:objects){
+				boolean keyFrame = previous == null
+						|| previousOffset / KEYFRAME_INTERVAL != eof / KEYFRAME_INTERVAL;
+				byte[] bytes = factory.serialise(object, keyFrame ? null : previous);
+				records.add(bytes);
+				previous = object;
+				previousOffset = eof;
+				eof += bytes.length + 8;
+			}
+			store.appendRecords(records);
+		}
 	}
 
 	public Factory<T> getFactory() {
@@ -5,17 +5,19 @@ import android.util.Log;
 import org.servalproject.succinct.networking.Hex;
 import org.servalproject.succinct.utils.ChangedObservable;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.ProtocolException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
-import java.util.Properties;
+import java.util.TreeMap;
 
 public class RecordStore {
 	public final File filename;
@@ -23,22 +25,29 @@ public class RecordStore {
 	private final RandomAccessFile file;
 	public long EOF=-1;
 	private long appendOffset=0;
-	private long ptr;
+	long ptr;
+	// verified while the storage was batching, but not yet committed
+	private boolean flushPending;
 	public PeerTransfer activeTransfer;
+	// hashes of longer versions of this file that peers have, by length
+	private final TreeMap<Long, byte[]> versions = new TreeMap<>();
 	public final Observable observable = new ChangedObservable();
 	private static final String TAG = "RecordStore";
 	private final File markFile;
-	private final Properties properties = new Properties();
+	private final MarkJournal marks;
 	public byte[] fileHash;
 	private native long open(long storePtr, String relativePath);
 	private native void append(long filePtr, byte[] bytes, int offset, int length);
 	private native int flush(long storePtr, long filePtr, byte[] expectedHash);
+	private native int verify(long filePtr, byte[] expectedHash);
+	private native void rewind(long filePtr);
 	private native void close(long ptr);
 
 	RecordStore(Storage storage, String relativePath) throws IOException {
 		this.store = storage;
 		this.filename = new File(storage.root, relativePath);
 		markFile = new File(storage.root, relativePath+".marks");
+		marks = new MarkJournal(new File(storage.root, relativePath+".journal"));
 		filename.getParentFile().mkdirs();
 		this.file = new RandomAccessFile(filename, "rw");
 		ptr = open(storage.ptr, relativePath);
@@ -49,60 +58,68 @@ public class RecordStore {
 	}
 
 	private void readProperties() throws IOException{
-		if (!markFile.exists())
-			return;
 		if (EOF == 0) {
+			marks.delete();
 			markFile.delete();
 			return;
 		}
-		properties.load(new FileInputStream(markFile));
-	}
-
-	private void flushProperties() throws IOException {
-		if (EOF == 0 || properties.isEmpty()){
+		marks.load();
+		// saved by an older version as a Properties file
+		if (markFile.exists()) {
+			marks.importProperties(markFile);
 			markFile.delete();
-			return;
 		}
-		properties.store(new FileOutputStream(markFile), null);
 	}
 
 	void setMark(String name, long offset) throws IOException {
-		String value = (String)properties.get(name);
-		Long v = (value == null ? null : Long.parseLong(value, 10));
-		// Noop
-		if ((v==null && offset==0) || (v!=null && v == offset))
-			return;
-		if (offset==0){
-			properties.remove(name);
-		} else {
-			properties.put(name, Long.toString(offset, 10));
-		}
-		flushProperties();
+		marks.setMark(name, offset);
 	}
 
 	public long getMark(String name){
-		String value = (String)properties.get(name);
-		return (value == null ? 0 : Long.parseLong(value, 10));
+		return marks.getMark(name);
 	}
 
 	public String getProperty(String name){
-		return (String) properties.get(name);
+		return marks.getProperty(name);
 	}
 
-	public void putProperty(String name, String value){
-		if (value == null)
-			properties.remove(name);
-		else
-			properties.put(name, value);
+	public void putProperty(String name, String value) throws IOException {
+		marks.putProperty(name, value);
 	}
 
-	public synchronized boolean setTranfer(PeerTransfer transfer){
+	public synchronized boolean setTranfer(PeerTransfer transfer) throws IOException {
 		if (activeTransfer != null)
 			return false;
+		// already complete, EOF may not have moved yet if the flush is waiting for a batch to commit
+		if (transfer.newLength <= EOF || (flushPending && transfer.newLength <= appendOffset))
+			return false;
+		// data left by an earlier transfer hasn't been verified, resume from the last version that was
+		rewind();
 		activeTransfer = transfer;
 		return true;
 	}
 
+	// a peer has this version, data received up to this length can be verified and committed
+	public synchronized void addVersion(long length, byte[] hash){
+		if (length > EOF)
+			versions.put(length, hash);
+	}
+
+	// end of appended data
+	public synchronized long getAppendOffset(){
+		return appendOffset;
+	}
+
+	// discard any appended data that hasn't been flushed
+	public synchronized void rewind() throws IOException {
+		commitPending();
+		if (appendOffset == EOF)
+			return;
+		rewind(ptr);
+		file.setLength(EOF);
+		appendOffset = EOF;
+	}
+
 	public synchronized void cancel(PeerTransfer transfer){
 		if (activeTransfer == transfer)
 			activeTransfer = null;
@@ -120,10 +137,9 @@ public class RecordStore {
 		}
 		appendOffset = EOF = length;
 		this.fileHash = hash;
-		if (notify) {
-			observable.notifyObservers();
+		versions.headMap(length, true).clear();
+		if (notify)
 			store.fileFlushed(this);
-		}
 	}
 
 	public int read(long offset, byte[] bytes) throws IOException{
@@ -155,6 +171,26 @@ public class RecordStore {
 		return file.getChannel().read(buffer);
 	}
 
+	// Copy part of the file to a stream.
+	// Positional channel reads don't move the file pointer, so we don't need to hold the lock while writing
+	public void copyTo(long offset, long length, OutputStream out, int bufferSize) throws IOException {
+		if (offset + length > EOF)
+			throw new IllegalStateException();
+		FileChannel channel = file.getChannel();
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(bufferSize, Math.max(length, 1)));
+		long end = offset + length;
+		while(offset < end){
+			buffer.clear();
+			if (end - offset < buffer.capacity())
+				buffer.limit((int) (end - offset));
+			int read = channel.read(buffer, offset);
+			if (read < 0)
+				throw new EOFException();
+			out.write(buffer.array(), 0, read);
+			offset += read;
+		}
+	}
+
 	int readLength(long offset) throws IOException {
 		byte[] lenBytes = new byte[4];
 		readBytes(offset, lenBytes);
@@ -167,30 +203,110 @@ public class RecordStore {
 	public synchronized void append(byte[] bytes, int offset, int length) throws IOException{
 		if (length <= 0)
 			return;
+		commitPending();
 		file.seek(appendOffset);
 		file.write(bytes, offset, length);
 		appendOffset+=length;
 		append(ptr, bytes, offset, length);
 	}
 
-	public synchronized void appendAt(long fileOffset, byte[] bytes) throws IOException{
+	// append the remaining bytes of a heap buffer without copying them
+	public synchronized void append(ByteBuffer data) throws IOException{
+		int length = data.remaining();
+		if (length <= 0)
+			return;
+		if (data.hasArray()){
+			append(data.array(), data.arrayOffset() + data.position(), length);
+		}else{
+			byte[] bytes = new byte[length];
+			data.duplicate().get(bytes);
+			append(bytes, 0, length);
+		}
+		data.position(data.limit());
+	}
+
+	public void appendAt(long fileOffset, byte[] bytes) throws IOException{
+		appendAt(fileOffset, ByteBuffer.wrap(bytes));
+	}
+
+	public synchronized void appendAt(long fileOffset, ByteBuffer data) throws IOException{
 		if (fileOffset > appendOffset)
 			throw new ProtocolException("Cannot append beyond the current end of file");
 		int offset = (int) (appendOffset - fileOffset);
-		append(bytes, offset, bytes.length - offset);
+		if (offset >= data.remaining())
+			return;
+		data.position(data.position() + offset);
+		while(data.hasRemaining()){
+			// stop at the end of each known version, so the data can be checked against its hash
+			ByteBuffer chunk = data;
+			Long next = versions.higherKey(appendOffset);
+			if (next != null && next - appendOffset < data.remaining()){
+				chunk = data.duplicate();
+				chunk.limit(data.position() + (int) (next - appendOffset));
+			}
+			append(chunk);
+			data.position(chunk.position());
+			flushVersion();
+		}
+	}
 
+	// commit what we've received if it completes the transfer or another known version
+	private void flushVersion() throws ProtocolException {
 		if (activeTransfer!=null && activeTransfer.newLength == appendOffset) {
-			flush(activeTransfer.expectedHash);
+			PeerTransfer transfer = activeTransfer;
 			activeTransfer = null;
+			flush(transfer.expectedHash);
+			return;
+		}
+		long length = appendOffset;
+		byte[] hash = versions.get(length);
+		if (hash == null)
+			return;
+		try {
+			flush(hash);
+		} catch (ProtocolException e) {
+			// don't trip over the same version when the next transfer retries
+			versions.remove(length);
+			throw e;
 		}
 	}
 
 	public synchronized void flush(byte[] expectedHash) throws ProtocolException {
+		if (store.inBatch(this)){
+			int ret = verify(ptr, expectedHash);
+			if (ret<0)
+				throw new ProtocolException("Hash mismatch flushing file "+filename+ " "+ Hex.toString(expectedHash));
+			if (ret>0)
+				flushPending = true;
+			return;
+		}
+		flushPending = false;
 		if (flush(store.ptr, ptr, expectedHash)<0)
 			throw new ProtocolException("Unknown error flushing file "+filename+ " "+ Hex.toString(expectedHash));
 	}
 
-	public void appendRecord(byte[] record) throws IOException {
+	// anything appended after a batched flush hasn't been verified, so commit what has been first
+	private void commitPending() throws ProtocolException {
+		if (!flushPending)
+			return;
+		flushPending = false;
+		if (flush(store.ptr, ptr, null)<0)
+			throw new ProtocolException("Unknown error flushing file "+filename);
+	}
+
+	// called by Storage, holding our lock
+	boolean takePendingFlush(){
+		boolean ret = flushPending;
+		flushPending = false;
+		return ret;
+	}
+
+	// called by Storage, holding our lock, if the batch failed to commit
+	void restorePendingFlush(){
+		flushPending = appendOffset > EOF;
+	}
+
+	private static byte[] frameRecord(byte[] record){
 		int len = record.length+8;
 		byte[] completeRecord = new byte[len];
 		completeRecord[0]= completeRecord[len -4] = (byte) (len>>24);
@@ -198,15 +314,38 @@ public class RecordStore {
 		completeRecord[2]= completeRecord[len -2] = (byte) (len>>8);
 		completeRecord[3]= completeRecord[len -1] = (byte) (len);
 		System.arraycopy(record, 0, completeRecord, 4, record.length);
+		return completeRecord;
+	}
+
+	public void appendRecord(byte[] record) throws IOException {
+		byte[] completeRecord = frameRecord(record);
 		synchronized (this) {
-			append(completeRecord, 0, len);
+			append(completeRecord, 0, completeRecord.length);
+			flush(null);
+		}
+	}
+
+	// append several records with a single flush, so peers only see one change
+	public void appendRecords(List<byte[]> records) throws IOException {
+		if (records.isEmpty())
+			return;
+		List<byte[]> framed = new ArrayList<>(records.size());
+		for(byte[] record:records)
+			framed.add(frameRecord(record));
+		synchronized (this) {
+			for(byte[] completeRecord:framed)
+				append(completeRecord, 0, completeRecord.length);
 			flush(null);
 		}
 	}
 
 	public void close() throws IOException {
+		synchronized (this){
+			commitPending();
+		}
 		observable.deleteObservers();
 		file.close();
+		marks.close();
 		close(ptr);
 		ptr = 0;
 	}
@@ -6,14 +6,40 @@ import java.nio.charset.Charset;
 
 public class Serialiser {
 	private ByteBuffer buff;
+	private final boolean reusable;
+	private static final int DEFAULT_SIZE = 1200;
+
 	public Serialiser(){
-		this(ByteBuffer.allocate(1200));
+		this(ByteBuffer.allocate(DEFAULT_SIZE), true);
 	}
+	// write into a caller supplied buffer, which may be direct
 	public Serialiser(ByteBuffer buff){
+		this(buff, false);
+	}
+	private Serialiser(ByteBuffer buff, boolean reusable){
 		this.buff = buff;
+		this.reusable = reusable;
 		buff.order(ByteOrder.BIG_ENDIAN);
 	}
 
+	// An idle instance per thread, so hot paths don't allocate a new buffer for every record
+	private static final ThreadLocal<Serialiser> idle = new ThreadLocal<>();
+
+	public static Serialiser obtain(){
+		Serialiser ret = idle.get();
+		if (ret == null)
+			return new Serialiser();
+		idle.set(null);
+		return ret;
+	}
+
+	// Hand this instance back to obtain(), any buffer from getResultBuffer() is no longer valid
+	public void recycle(){
+		buff.clear();
+		if (reusable)
+			idle.set(this);
+	}
+
 	public int remaining(){
 		return buff.remaining();
 	}
@@ -25,6 +51,23 @@ public class Serialiser {
 	public static final Charset UTF_8 = Charset.forName("UTF-8");
 
 	public void putString(String value){
+		int len = value.length();
+		// most strings are ascii, which we can write without encoding into a temporary array
+		if (len < buff.remaining()) {
+			int pos = buff.position();
+			int i;
+			for (i = 0; i < len; i++) {
+				char c = value.charAt(i);
+				if (c >= 0x80)
+					break;
+				buff.put(pos + i, (byte) c);
+			}
+			if (i == len) {
+				buff.position(pos + len);
+				putByte((byte) 0);
+				return;
+			}
+		}
 		putFixedBytes(value.getBytes(UTF_8));
 		putByte((byte) 0);
 	}
@@ -104,6 +147,18 @@ public class Serialiser {
 		buff.position(buff.position()+length);
 	}
 
+	// The bytes written so far, without copying them.
+	// Only valid until this serialiser is written to, cleared or recycled
+	public ByteBuffer getResultBuffer(){
+		ByteBuffer ret = buff.duplicate();
+		ret.flip();
+		return ret.slice();
+	}
+
+	public void clear(){
+		buff.clear();
+	}
+
 	public byte[] getResult(){
 		buff.flip();
 		if (!buff.hasRemaining())
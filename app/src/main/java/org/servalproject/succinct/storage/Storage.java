@@ -15,6 +15,8 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -31,6 +33,7 @@ public class Storage {
 
 	private native long open(String path);
 	private native void close(long ptr);
+	private native int flush(long ptr, long[] files, RecordStore[] stores);
 
 	private static final String TAG = "Storage";
 
@@ -56,7 +59,7 @@ public class Storage {
 	}
 
 	private Map<String, RecordStore> files = new HashMap<>();
-	public RecordStore openFile(String relativePath) throws IOException{
+	public synchronized RecordStore openFile(String relativePath) throws IOException{
 		RecordStore file = files.get(relativePath);
 		if (file == null){
 			file = new RecordStore(this, relativePath);
@@ -86,7 +89,111 @@ public class Storage {
 		ptr = 0;
 	}
 
+	private static class Batch{
+		private int depth;
+		private final List<RecordStore> files = new ArrayList<>();
+	}
+	private final ThreadLocal<Batch> batch = new ThreadLocal<>();
+
+	// Until the matching endBatch, files flushed by this thread are only verified.
+	// endBatch then commits them all together, with a single new root hash.
+	public void beginBatch(){
+		Batch b = batch.get();
+		if (b == null){
+			b = new Batch();
+			batch.set(b);
+		}
+		b.depth++;
+	}
+
+	public void endBatch() throws IOException {
+		Batch b = batch.get();
+		if (b == null)
+			throw new IllegalStateException("No batch in progress");
+		if (--b.depth > 0)
+			return;
+		batch.remove();
+		if (!b.files.isEmpty())
+			commit(b.files);
+	}
+
+	boolean inBatch(RecordStore file){
+		Batch b = batch.get();
+		if (b == null)
+			return false;
+		if (!b.files.contains(file))
+			b.files.add(file);
+		return true;
+	}
+
+	private static final Comparator<RecordStore> BY_NAME = new Comparator<RecordStore>() {
+		@Override
+		public int compare(RecordStore one, RecordStore two) {
+			return one.filename.compareTo(two.filename);
+		}
+	};
+	// only one batch commits at a time
+	private final Object commitLock = new Object();
+	// files changed by the commit in progress, observers are notified once every lock is released
+	private List<RecordStore> committed;
+
+	private void commit(List<RecordStore> files) throws IOException {
+		RecordStore[] sorted = files.toArray(new RecordStore[files.size()]);
+		Arrays.sort(sorted, BY_NAME);
+		List<RecordStore> changed = new ArrayList<>();
+		try {
+			synchronized (commitLock) {
+				committed = changed;
+				try {
+					commit(sorted, 0);
+				} finally {
+					committed = null;
+				}
+			}
+		} finally {
+			for (RecordStore file : changed)
+				notifyFlushed(file);
+		}
+	}
+
+	// hold every file's lock, in a consistent order, so nothing else can be appended while we commit
+	private void commit(RecordStore[] files, int index) throws IOException {
+		if (index < files.length){
+			synchronized (files[index]){
+				commit(files, index + 1);
+			}
+			return;
+		}
+		if (ptr == 0)
+			return;
+		List<RecordStore> pending = new ArrayList<>(files.length);
+		for(RecordStore file : files){
+			if (file.takePendingFlush())
+				pending.add(file);
+		}
+		if (pending.isEmpty())
+			return;
+		long[] ptrs = new long[pending.size()];
+		for (int i = 0; i < ptrs.length; i++)
+			ptrs[i] = pending.get(i).ptr;
+		if (flush(ptr, ptrs, pending.toArray(new RecordStore[pending.size()])) < 0) {
+			// anything still appended can be committed by the file's next flush
+			for (RecordStore file : pending)
+				file.restorePendingFlush();
+			throw new IOException("Failed to flush "+pending.size()+" files");
+		}
+	}
+
+	// called by a file when JNI has changed its length
 	void fileFlushed(RecordStore file) {
+		if (Thread.holdsLock(commitLock))
+			committed.add(file);
+		else
+			notifyFlushed(file);
+	}
+
+	private void notifyFlushed(RecordStore file) {
+		file.observable.notifyObservers();
 		observable.notifyObservers(file);
 	}
 }
@@ -8,12 +8,17 @@ import org.servalproject.succinct.utils.AndroidObserver;
 
 import java.io.IOException;
 import java.util.Observable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public abstract class StorageWatcher<T> extends AndroidObserver{
 	protected final TeamStorage store;
 	private final Factory<T> factory;
-	private boolean active = false;
+	private volatile boolean active = false;
 	private static final String TAG = "StorageWatcher";
+	// opening files is the slow part of activation, so it's shared by all watchers
+	private static final ExecutorService openPool = Executors.newFixedThreadPool(
+			Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
 
 	public StorageWatcher(Handler handler, TeamStorage store, Factory<T> factory){
 		super(handler);
@@ -26,18 +31,37 @@ public abstract class StorageWatcher<T> extends AndroidObserver{
 		this.factory = factory;
 	}
 
+	// Open each existing file on the pool, then Visit them on our handler
 	public void activate(){
 		if (active)
 			return;
 		active = true;
 		store.observable.addObserver(this);
-		for(PeerId peer : store.getDevices()){
-			try {
-				if (store.exists(factory, peer))
-					Visit(peer, store.openIterator(factory, peer));
-			} catch (IOException e) {
-				Log.e(TAG, e.getMessage(), e);
-			}
+		for(final PeerId peer : store.getDevices(factory)){
+			openPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!active)
+						return;
+					try {
+						final RecordIterator<T> records = store.openIterator(factory, peer);
+						post(new Runnable() {
+							@Override
+							public void run() {
+								if (!active)
+									return;
+								try {
+									Visit(peer, records);
+								} catch (IOException e) {
+									Log.e(TAG, e.getMessage(), e);
+								}
+							}
+						});
+					} catch (IOException e) {
+						Log.e(TAG, e.getMessage(), e);
+					}
+				}
+			});
 		}
 	}
 
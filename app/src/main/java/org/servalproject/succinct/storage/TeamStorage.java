@@ -16,7 +16,11 @@ import org.servalproject.succinct.team.TeamMember;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TeamStorage extends Storage {
 	public final PeerId peerId;
@@ -34,11 +38,9 @@ public class TeamStorage extends Storage {
 			@Override
 			protected void Visit(PeerId peer, RecordIterator<StoredChatMessage> records) throws IOException {
 				// todo wait until we have peer's name from id file
-				records.reset("imported");
 				ChatDatabase db = ChatDatabase.getInstance(appContext);
-				// todo handle duplicate records in case previous process inserted without saving mark?
+				// the database tracks how far it has imported this file
 				db.insert(teamId, peer, records);
-				records.mark("imported");
 			}
 		};
 	}
@@ -51,6 +53,7 @@ public class TeamStorage extends Storage {
 					messageQueue = new MessageQueue(appContext, TeamStorage.this);
 				if (teamActive)
 					chatWatcher.activate();
+				ChatDatabase.getInstance(appContext).archiveOldTeams(teamId);
 			}catch (IOException e){
 				throw new IllegalStateException(e);
 			}
@@ -155,21 +158,15 @@ public class TeamStorage extends Storage {
 
 		RecordIterator<Team> iterator = storage.openIterator(Team.factory, teamId);
 		iterator.end();
-		while(iterator.prev()){
-			Team team = iterator.read();
-			// set myTeam to the last record
-			if (storage.myTeam == null)
-				storage.myTeam = team;
-			// check if we are / were the team leader
-			if (peerId.equals(team.leader))
-				storage.sendMessages = true;
-
-			if (team.leader==null)
-				storage.teamActive = false;
-			else
-				// stop when we hit a team create record
-				break;
-		}
+		// find the last team create record, without decoding the closures after it
+		List<Team> created = iterator.scan(false, 1, Team.created);
+		// check if we are / were the team leader
+		if (!created.isEmpty() && peerId.equals(created.get(0).leader))
+			storage.sendMessages = true;
+		if (created.isEmpty() ? iterator.store.EOF > 0 : iterator.next())
+			storage.teamActive = false;
+		// set myTeam to the last record
+		storage.myTeam = iterator.readLast();
 
 		TeamMember me = storage.getMyself();
 		if (me!=null && me.name == null){
@@ -229,12 +226,65 @@ public class TeamStorage extends Storage {
 		chatWatcher.deactivate();
 	}
 
+	// peer folders and their files, scanned once then kept up to date by fileFlushed
+	private final ConcurrentHashMap<PeerId, Set<String>> catalogue = new ConcurrentHashMap<>();
+	private volatile boolean catalogueLoaded = false;
+
+	private void loadCatalogue(){
+		if (catalogueLoaded)
+			return;
+		synchronized (catalogue){
+			if (catalogueLoaded)
+				return;
+			File[] folders = root.listFiles();
+			if (folders != null) {
+				for (File f : folders) {
+					if (!f.isDirectory() || !Hex.isHex(f.getName()))
+						continue;
+					String[] names = f.list();
+					if (names == null)
+						continue;
+					PeerId peer = new PeerId(f.getName());
+					for (String name : names)
+						addToCatalogue(peer, name);
+				}
+			}
+			catalogueLoaded = true;
+		}
+	}
+
+	private void addToCatalogue(PeerId peer, String name){
+		Set<String> names = catalogue.get(peer);
+		if (names == null){
+			Set<String> newNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			names = catalogue.putIfAbsent(peer, newNames);
+			if (names == null)
+				names = newNames;
+		}
+		names.add(name);
+	}
+
+	@Override
+	void fileFlushed(RecordStore file) {
+		File folder = file.filename.getParentFile();
+		if (root.equals(folder.getParentFile()) && Hex.isHex(folder.getName()))
+			addToCatalogue(new PeerId(folder.getName()), file.filename.getName());
+		super.fileFlushed(file);
+	}
+
 	public List<PeerId> getDevices(){
+		loadCatalogue();
+		return new ArrayList<>(catalogue.keySet());
+	}
+
+	// devices that have a file of this type
+	public <T> List<PeerId> getDevices(Factory<T> factory){
+		loadCatalogue();
+		String name = factory.getFileName();
 		List<PeerId> devices = new ArrayList<>();
-		for(File f : root.listFiles()){
-			if (!f.isDirectory() || !Hex.isHex(f.getName()))
-				continue;
-			devices.add(new PeerId(f.getName()));
+		for(Map.Entry<PeerId, Set<String>> e : catalogue.entrySet()){
+			if (e.getValue().contains(name))
+				devices.add(e.getKey());
 		}
 		return devices;
 	}
@@ -250,7 +300,9 @@ public class TeamStorage extends Storage {
 	}
 
 	public <T> boolean exists(Factory<T> factory, PeerId peer){
-		return new File(root, peer.toString()+"/"+factory.getFileName()).exists();
+		loadCatalogue();
+		Set<String> names = catalogue.get(peer);
+		return names != null && names.contains(factory.getFileName());
 	}
 
 	public <T> RecordIterator<T> openIterator(Factory<T> factory, PeerId peer) throws IOException {
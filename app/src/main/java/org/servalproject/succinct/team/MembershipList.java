@@ -1,120 +1,204 @@
 package org.servalproject.succinct.team;
 
 import org.servalproject.succinct.networking.PeerId;
+import org.servalproject.succinct.storage.DeSerialiser;
 import org.servalproject.succinct.storage.RecordIterator;
-import org.servalproject.succinct.storage.Storage;
+import org.servalproject.succinct.storage.RecordStore;
 import org.servalproject.succinct.storage.TeamStorage;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MembershipList {
 	private final TeamStorage store;
-	private final HashMap<PeerId, Integer> positions = new HashMap<>();
-	private final Set<PeerId> removed = new HashSet<>();
 	private final RecordIterator<Membership> iterator;
-	private final List<PeerId> peerIds = new ArrayList<>();
-	private final List<TeamMember> members = new ArrayList<>();
+
+	// Replaced, never modified, whenever membership changes. Readers don't need a lock.
+	private static class Snapshot{
+		private final PeerId[] peerIds;
+		private final TeamMember[] members;
+		private final Map<PeerId, Integer> positions;
+		private final Set<PeerId> removed;
+		private final List<TeamMember> memberList;
+
+		private Snapshot(PeerId[] peerIds, TeamMember[] members, Map<PeerId, Integer> positions, Set<PeerId> removed){
+			this.peerIds = peerIds;
+			this.members = members;
+			this.positions = positions;
+			this.removed = removed;
+			this.memberList = Collections.unmodifiableList(Arrays.asList(members));
+		}
+	}
+	private volatile Snapshot snapshot;
+	// set by storage notifications, so readers only touch the disk when something has changed
+	private volatile boolean dirty = true;
+	private final Set<PeerId> staleMembers = Collections.newSetFromMap(new ConcurrentHashMap<PeerId, Boolean>());
 
 	public MembershipList(TeamStorage store) throws IOException {
 		this.store = store;
 		iterator = store.openIterator(Membership.factory, store.teamId);
 		iterator.start();
-		members.add(new TeamMember("","EOC"));
-		peerIds.add(PeerId.EOC);
+		Map<PeerId, Integer> positions = new HashMap<>();
 		positions.put(PeerId.EOC, 0);
+		snapshot = new Snapshot(
+				new PeerId[]{PeerId.EOC},
+				new TeamMember[]{new TeamMember("","EOC")},
+				positions,
+				Collections.<PeerId>emptySet());
+		iterator.store.observable.addObserver(membershipObserver);
+		store.observable.addObserver(memberObserver);
 	}
 
-	public TeamMember getTeamMember(PeerId id) throws IOException {
-		List<TeamMember> members = getMembers();
-		if (!positions.containsKey(id))
-			return null;
-		int position = positions.get(id);
-		TeamMember member = members.get(position);
-		if (member == null){
-			RecordIterator<TeamMember> recordIterator = store.openIterator(TeamMember.factory, id);
-			recordIterator.end();
-			while(recordIterator.prev()){
-				member = recordIterator.read();
-				if (member.name!=null)
-					break;
+	private final Observer membershipObserver = new Observer() {
+		@Override
+		public void update(Observable observable, Object o) {
+			dirty = true;
+		}
+	};
+
+	private final Observer memberObserver = new Observer() {
+		@Override
+		public void update(Observable observable, Object o) {
+			RecordStore file = (RecordStore)o;
+			if (!file.filename.getName().equals(TeamMember.factory.getFileName()))
+				return;
+			PeerId peer = new PeerId(file.filename.getParentFile().getName());
+			if (snapshot.positions.containsKey(peer)){
+				staleMembers.add(peer);
+				dirty = true;
 			}
-			members.set(position, member);
 		}
-		return member;
+	};
+
+	private Snapshot getSnapshot() throws IOException {
+		if (dirty)
+			return refresh();
+		return snapshot;
 	}
 
-	public TeamMember getTeamMember(int position) throws IOException{
-		List<TeamMember> members = getMembers();
-		if (position<0 || position>=members.size())
-			return null;
-		TeamMember member = members.get(position);
-		if (member == null){
-			PeerId id = peerIds.get(position);
-			RecordIterator<TeamMember> recordIterator = store.openIterator(TeamMember.factory, id);
-			recordIterator.end();
-			while(recordIterator.prev()){
-				member = recordIterator.read();
-				if (member.name!=null)
-					break;
+	private synchronized Snapshot refresh() throws IOException {
+		if (!dirty)
+			return snapshot;
+		dirty = false;
+
+		Snapshot current = snapshot;
+		PeerId[] peerIds = current.peerIds;
+		TeamMember[] members = current.members;
+		Map<PeerId, Integer> positions = current.positions;
+		Set<PeerId> removed = current.removed;
+		boolean copied = false;
+
+		// read new records in large blocks
+		final List<Membership> changes = new ArrayList<>();
+		iterator.scan(new RecordIterator.RecordVisitor() {
+			@Override
+			public boolean visit(long offset, DeSerialiser record) {
+				changes.add(Membership.factory.create(record));
+				return true;
+			}
+		});
+
+		for(Membership membership:changes){
+			if (!copied){
+				positions = new HashMap<>(positions);
+				removed = new HashSet<>(removed);
+				copied = true;
+			}
+			if (membership.enroll){
+				if (!positions.containsKey(membership.peerId)) {
+					int pos = peerIds.length;
+					peerIds = Arrays.copyOf(peerIds, pos + 1);
+					members = Arrays.copyOf(members, pos + 1);
+					peerIds[pos] = membership.peerId;
+					members[pos] = readMember(membership.peerId);
+					positions.put(membership.peerId, pos);
+					removed.remove(membership.peerId);
+					staleMembers.remove(membership.peerId);
+				}
+			}else{
+				removed.add(membership.peerId);
+				positions.remove(membership.peerId);
 			}
-			members.set(position, member);
 		}
-		return member;
+
+		if (!staleMembers.isEmpty()){
+			if (members == current.members)
+				members = members.clone();
+			for (int pos = 1; pos < peerIds.length; pos++){
+				if (staleMembers.remove(peerIds[pos]))
+					members[pos] = readMember(peerIds[pos]);
+			}
+		}
+
+		if (copied || members != current.members)
+			snapshot = new Snapshot(peerIds, members, positions, removed);
+		return snapshot;
+	}
+
+	// the latest record that includes a name
+	private TeamMember readMember(PeerId id) throws IOException {
+		RecordIterator<TeamMember> recordIterator = store.openIterator(TeamMember.factory, id);
+		recordIterator.end();
+		// skip empty records without decoding them
+		while(recordIterator.prev()){
+			if (recordIterator.read(TeamMember.hasName))
+				return recordIterator.read();
+		}
+		// no names yet, the oldest record
+		recordIterator.start();
+		return recordIterator.next() ? recordIterator.read() : null;
+	}
+
+	public TeamMember getTeamMember(PeerId id) throws IOException {
+		Snapshot s = getSnapshot();
+		Integer position = s.positions.get(id);
+		if (position == null)
+			return null;
+		return s.members[position];
+	}
+
+	public TeamMember getTeamMember(int position) throws IOException{
+		Snapshot s = getSnapshot();
+		if (position<0 || position>=s.members.length)
+			return null;
+		return s.members[position];
 	}
 
 	public boolean isActive(PeerId id) throws IOException {
-		getMembers();
-		return positions.containsKey(id) && !removed.contains(id);
+		Snapshot s = getSnapshot();
+		return s.positions.containsKey(id) && !s.removed.contains(id);
 	}
 
 	public boolean isActive(int position) throws IOException {
-		getMembers();
-		PeerId id = peerIds.get(position);
-		return positions.containsKey(id) && !removed.contains(id) && positions.get(id)==position;
+		Snapshot s = getSnapshot();
+		PeerId id = s.peerIds[position];
+		Integer pos = s.positions.get(id);
+		return pos != null && pos == position && !s.removed.contains(id);
 	}
 
 	public Integer getPosition(PeerId id) throws IOException {
-		getMembers();
-		return positions.get(id);
+		return getSnapshot().positions.get(id);
 	}
 
 	public PeerId getPeerId(int position) throws IOException {
-		getMembers();
-		if (position<0 || position>=peerIds.size())
+		Snapshot s = getSnapshot();
+		if (position<0 || position>=s.peerIds.length)
 			return null;
-		return peerIds.get(position);
+		return s.peerIds[position];
 	}
 
-	public synchronized List<TeamMember> getMembers() throws IOException {
-		while(iterator.next()){
-			Membership membership = iterator.read();
-			if (membership.enroll){
-				if (!positions.containsKey(membership.peerId)) {
-					RecordIterator<TeamMember> recordIterator = store.openIterator(TeamMember.factory, membership.peerId);
-					recordIterator.end();
-					TeamMember member = null;
-					while(recordIterator.prev()){
-						member = recordIterator.read();
-						if (member.name!=null)
-							break;
-					}
-					int pos = members.size();
-					members.add(member);
-					peerIds.add(membership.peerId);
-					positions.put(membership.peerId, pos);
-					removed.remove(membership.peerId);
-				}
-			}else{
-				removed.add(membership.peerId);
-				positions.remove(membership.peerId);
-			}
-		}
-		return members;
+	public List<TeamMember> getMembers() throws IOException {
+		return getSnapshot().memberList;
 	}
 
 	// For now, called automatically by the team leader
@@ -5,6 +5,7 @@ import org.servalproject.succinct.networking.PeerId;
 import org.servalproject.succinct.networking.messages.Message;
 import org.servalproject.succinct.storage.DeSerialiser;
 import org.servalproject.succinct.storage.Factory;
+import org.servalproject.succinct.storage.RecordIterator;
 import org.servalproject.succinct.storage.Serialiser;
 
 public class Team extends Message<Team>{
@@ -55,6 +56,14 @@ public class Team extends Message<Team>{
         }
     };
 
+    // team create records, rather than closures
+    public static final RecordIterator.RecordFilter created = new RecordIterator.RecordFilter() {
+        @Override
+        public boolean accept(RecordIterator.RecordHeader header) {
+            return header.getLength() > 8;
+        }
+    };
+
     @Override
     protected Factory<Team> getFactory() {
         return factory;
@@ -41,4 +41,12 @@ public class TeamMember {
             serialiser.putString(object.name);
         }
     };
+
+    // records without a name are empty
+    public static final Factory.Field<TeamMember, Boolean> hasName = new Factory.Field<TeamMember, Boolean>() {
+        @Override
+        public Boolean get(DeSerialiser serialiser) {
+            return serialiser.hasRemaining();
+        }
+    };
 }
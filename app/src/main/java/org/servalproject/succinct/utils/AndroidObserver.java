@@ -36,4 +36,8 @@ public abstract class AndroidObserver implements Observer{
 	}
 
 	public abstract void observe(Observable observable, Object o);
+
+	protected void post(Runnable r){
+		handler.post(r);
+	}
 }
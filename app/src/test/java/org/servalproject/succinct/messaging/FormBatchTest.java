@@ -0,0 +1,70 @@
+package org.servalproject.succinct.messaging;
+
+import org.junit.Test;
+import org.servalproject.succinct.storage.DeSerialiser;
+import org.servalproject.succinct.storage.Serialiser;
+
+import static org.junit.Assert.*;
+
+public class FormBatchTest {
+    private static final long EPOC = 1500000000000L;
+
+    private static byte[] record(int hash, int... body) {
+        byte[] ret = new byte[FormBatch.HASH_LEN + body.length];
+        for (int i = 0; i < FormBatch.HASH_LEN; i++)
+            ret[i] = (byte) (hash + i);
+        for (int i = 0; i < body.length; i++)
+            ret[FormBatch.HASH_LEN + i] = (byte) body[i];
+        return ret;
+    }
+
+    private static FormBatch roundTrip(FormBatch batch) {
+        Serialiser serialiser = new Serialiser();
+        batch.write(serialiser, EPOC);
+        return FormBatch.read(new DeSerialiser(serialiser.getResult()), EPOC);
+    }
+
+    @Test
+    public void writeThenRead() throws Exception {
+        FormBatch batch = new FormBatch(3);
+        assertTrue(batch.add(EPOC + 12300, record(1, 10, 11, 12)));
+        assertTrue(batch.add(EPOC + 45600, record(1)));
+        assertTrue(batch.add(EPOC + 7890000, record(1, 0xFF, 0x80)));
+
+        FormBatch read = roundTrip(batch);
+        assertEquals(3, read.position);
+        assertEquals(3, read.size());
+        for (int i = 0; i < batch.size(); i++) {
+            assertArrayEquals(batch.records.get(i), read.records.get(i));
+            assertEquals(batch.times.get(i), read.times.get(i));
+        }
+    }
+
+    @Test
+    public void outOfOrderTimesArePreserved() throws Exception {
+        FormBatch batch = new FormBatch(0);
+        batch.add(EPOC + 5099, record(2, 1));
+        // compressed concurrently, so older than the record before it
+        batch.add(EPOC + 3000, record(2, 2));
+        batch.add(EPOC + 9951, record(2, 3));
+        batch.add(EPOC + 1200, record(2, 4));
+
+        // the same 0.1s precision as a record sent on its own
+        FormBatch read = roundTrip(batch);
+        assertEquals(EPOC + 5000, (long) read.times.get(0));
+        assertEquals(EPOC + 3000, (long) read.times.get(1));
+        assertEquals(EPOC + 9900, (long) read.times.get(2));
+        assertEquals(EPOC + 1200, (long) read.times.get(3));
+        for (int i = 0; i < batch.size(); i++)
+            assertArrayEquals(batch.records.get(i), read.records.get(i));
+    }
+
+    @Test
+    public void rejectsOtherForms() throws Exception {
+        FormBatch batch = new FormBatch(0);
+        assertTrue(batch.add(EPOC, record(1, 1)));
+        assertFalse(batch.add(EPOC, record(2, 1)));
+        assertFalse(batch.add(EPOC, new byte[FormBatch.HASH_LEN - 1]));
+        assertEquals(1, batch.size());
+    }
+}
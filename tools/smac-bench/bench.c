@@ -0,0 +1,243 @@
+/*
+  Desktop benchmark for the forms codec.
+
+  Builds the recipes for a form specification, then compresses every
+  instance of that form, reporting bytes per record and records per second.
+  Each stripped field value is also round tripped through the SMAC text
+  coder, so a broken coder fails the run.
+
+  usage: smac-bench [-n iterations] <smac.dat> <form.xhtml> <instance.xml>...
+*/
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <strings.h>
+#include <unistd.h>
+#include <time.h>
+
+#include "arithmetic.h"
+#include "packed_stats.h"
+#include "recipe.h"
+#include "smac.h"
+
+#define MAX_RECIPES 1024
+#define MAX_FORM_SIZE 0x10000
+
+struct instance {
+  const char *filename;
+  int xml_len;
+  char stripped[MAX_FORM_SIZE];
+  int stripped_len;
+  unsigned char succinct[1024];
+  int succinct_len;
+};
+
+static double now(void)
+{
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static char *read_file(const char *filename, int *len)
+{
+  FILE *f = fopen(filename, "r");
+  if (!f) {
+    fprintf(stderr, "Could not read '%s'\n", filename);
+    return NULL;
+  }
+  char *buffer = malloc(MAX_FORM_SIZE + 1);
+  int r = fread(buffer, 1, MAX_FORM_SIZE, f);
+  fclose(f);
+  buffer[r] = 0;
+  if (len)
+    *len = r;
+  return buffer;
+}
+
+static struct recipe *lookup_recipe(const char *formid, void *context)
+{
+  struct recipe **recipes = context;
+  int i;
+  for (i = 0; recipes[i]; i++) {
+    if (strcmp(recipes[i]->formname, formid) == 0)
+      return recipes[i];
+  }
+  return NULL;
+}
+
+// same steps as build_recipe in compression.cpp
+static struct recipe **build_recipes(const char *specification)
+{
+  char *recipe_text[MAX_RECIPES];
+  char *form_names[MAX_RECIPES];
+  bzero(recipe_text, sizeof recipe_text);
+  bzero(form_names, sizeof form_names);
+
+  if (xhtmlToRecipe(specification, NULL, recipe_text, form_names))
+    return NULL;
+
+  int i, count;
+  for (count = 0; count < MAX_RECIPES; count++) {
+    if (!recipe_text[count])
+      break;
+  }
+  if (count == 0)
+    return NULL;
+  struct recipe **recipes = malloc((count + 1) * sizeof(struct recipe *));
+  for (i = 0; i < count; i++) {
+    recipes[i] = recipe_read(form_names[i], recipe_text[i], (int)strlen(recipe_text[i]));
+    free(recipe_text[i]);
+    free(form_names[i]);
+  }
+  recipes[count] = NULL;
+  return recipes;
+}
+
+// round trip each "field=value" line through the text coder
+static int round_trip_values(stats_handle *h, struct instance *instance,
+                             int *values, int *value_bytes, int *compressed_bytes)
+{
+  int errors = 0;
+  const char *line = instance->stripped;
+  while (*line) {
+    const char *end = strchr(line, '\n');
+    if (!end)
+      end = line + strlen(line);
+    const char *value = memchr(line, '=', end - line);
+    if (value && end - value - 1 > 0 && end - value - 1 < 1024) {
+      value++;
+      int len = end - value;
+      unsigned char compressed[4096];
+      int compressed_len = sizeof compressed;
+      char decompressed[1024 * 3 + 1];
+      int decompressed_len = 0;
+      if (stats3_compress(value, len, compressed, &compressed_len, h)
+          || stats3_decompress(compressed, compressed_len, decompressed, &decompressed_len, h)
+          || decompressed_len != len
+          || memcmp(value, decompressed, len)) {
+        fprintf(stderr, "%s: round trip failed for '%.*s'\n", instance->filename, len, value);
+        errors++;
+      }
+      (*values)++;
+      *value_bytes += len;
+      *compressed_bytes += compressed_len;
+    }
+    line = *end ? end + 1 : end;
+  }
+  return errors;
+}
+
+int main(int argc, char **argv)
+{
+  int iterations = 100;
+  int opt;
+  while ((opt = getopt(argc, argv, "n:")) != -1) {
+    switch (opt) {
+    case 'n':
+      iterations = atoi(optarg);
+      break;
+    default:
+      goto usage;
+    }
+  }
+  if (argc - optind < 3 || iterations < 1)
+    goto usage;
+
+  const char *stats_file = argv[optind++];
+  const char *spec_file = argv[optind++];
+  int count = argc - optind;
+
+  double start = now();
+  stats_handle *h = stats_map_file(stats_file);
+  if (!h) {
+    fprintf(stderr, "Could not load stats from '%s'\n", stats_file);
+    return 1;
+  }
+  stats_load_tree(h);
+  printf("loaded %s in %.1fms\n", stats_file, (now() - start) * 1000);
+
+  char *specification = read_file(spec_file, NULL);
+  if (!specification)
+    return 1;
+  start = now();
+  struct recipe **recipes = build_recipes(specification);
+  free(specification);
+  if (!recipes) {
+    fprintf(stderr, "Could not build a recipe from '%s'\n", spec_file);
+    return 1;
+  }
+  printf("built recipe %s in %.1fms\n", recipes[0]->formname, (now() - start) * 1000);
+
+  struct instance *instances = calloc(count, sizeof(struct instance));
+  int i, j;
+  long xml_bytes = 0, stripped_bytes = 0, succinct_bytes = 0;
+  for (i = 0; i < count; i++) {
+    struct instance *instance = &instances[i];
+    instance->filename = argv[optind + i];
+    char *xml = read_file(instance->filename, &instance->xml_len);
+    if (!xml)
+      return 1;
+    instance->stripped_len = xml2stripped(NULL, xml, instance->xml_len,
+                                          instance->stripped, sizeof instance->stripped);
+    free(xml);
+    if (instance->stripped_len <= 0) {
+      fprintf(stderr, "%s: could not strip form\n", instance->filename);
+      return 1;
+    }
+    xml_bytes += instance->xml_len;
+    stripped_bytes += instance->stripped_len;
+  }
+
+  // compress every record, repeatedly, to get a stable rate
+  start = now();
+  for (j = 0; j < iterations; j++) {
+    for (i = 0; i < count; i++) {
+      struct instance *instance = &instances[i];
+      instance->succinct_len = recipe_compress(h, lookup_recipe, recipes, recipes[0],
+                                               instance->stripped, instance->stripped_len,
+                                               instance->succinct, sizeof instance->succinct);
+      if (instance->succinct_len < 0) {
+        fprintf(stderr, "%s: compression failed\n", instance->filename);
+        return 1;
+      }
+    }
+  }
+  double elapsed = now() - start;
+  for (i = 0; i < count; i++)
+    succinct_bytes += instances[i].succinct_len;
+
+  printf("\n%-24s %8s %8s %8s\n", "record", "xml", "stripped", "succinct");
+  for (i = 0; i < count; i++)
+    printf("%-24s %8d %8d %8d\n", instances[i].filename, instances[i].xml_len,
+           instances[i].stripped_len, instances[i].succinct_len);
+
+  printf("\nrecords:            %d x %d iterations\n", count, iterations);
+  printf("bytes per record:   %.1f xml, %.1f stripped, %.1f succinct\n",
+         (double)xml_bytes / count, (double)stripped_bytes / count,
+         (double)succinct_bytes / count);
+  printf("compression ratio:  %.2f%% of stripped\n", succinct_bytes * 100.0 / stripped_bytes);
+  printf("records per second: %.0f\n", count * iterations / elapsed);
+
+  int values = 0, value_bytes = 0, compressed_bytes = 0, errors = 0;
+  start = now();
+  for (i = 0; i < count; i++)
+    errors += round_trip_values(h, &instances[i], &values, &value_bytes, &compressed_bytes);
+  elapsed = now() - start;
+
+  printf("\ntext values:        %d, %d bytes -> %d bytes\n", values, value_bytes, compressed_bytes);
+  printf("round trips/second: %.0f\n", values / elapsed);
+  printf("round trip errors:  %d\n", errors);
+
+  for (i = 0; recipes[i]; i++)
+    recipe_free(recipes[i]);
+  free(recipes);
+  free(instances);
+  stats_handle_free(h);
+  return errors ? 1 : 0;
+
+usage:
+  fprintf(stderr, "usage: %s [-n iterations] <smac.dat> <form.xhtml> <instance.xml>...\n", argv[0]);
+  return 2;
+}